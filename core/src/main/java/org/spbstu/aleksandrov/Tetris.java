@@ -9,12 +9,16 @@ import org.spbstu.aleksandrov.controller.Player;
 import org.spbstu.aleksandrov.controller.Robot;
 import org.spbstu.aleksandrov.controller.RobotInput;
 import org.spbstu.aleksandrov.model.GameSession;
+import org.spbstu.aleksandrov.solver.EvaluationCounter;
 import org.spbstu.aleksandrov.solver.Solver;
 import org.spbstu.aleksandrov.view.GameRenderer;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 @SuppressWarnings({"ConstantConditions", "PointlessBooleanExpression"})
 public class Tetris extends Game {
@@ -45,7 +49,38 @@ public class Tetris extends Game {
 
     public final static boolean AUTO_RESET = true;
 
+    // Threads of the Solver, the placements of the falling tetromino are searched in parallel
+    public final static int SOLVER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // Beam search of the Solver: the best fields kept after every tetromino (0 - exhaustive search) and the number of
+    // tetrominoes to look ahead
+    public final static int BEAM_WIDTH = 0;
+    public final static int BEAM_DEPTH = 4;
+
+    // Expectimax of the Solver: the best candidates graded again (0 - off) with the tetrominoes after the end of the
+    // bucket averaged over the possible types
+    public final static int EXPECTIMAX_WIDTH = 0;
+    public final static int EXPECTIMAX_DEPTH = 1;
+
+    // The Solver deepens the search while the tetromino falls one row, so the decision is ready in time at any level
+    public final static boolean ANYTIME = true;
+
+    // The Solver searches one tetromino less on a low field and one more on a high or holed field
+    public final static boolean ADAPTIVE = true;
+
+    // The Solver searches the next decision while the Robot performs the movements of the current one
+    public final static boolean PONDERING = true;
+
+    // The render thread performs a movement of the ROBOT every ROBOT_FRAMES frames, for the movement demonstration
+    public final static int ROBOT_FRAMES = 3;
+
+    // Weights of the EvaluationCounter (see EvaluationCounter.load), the file is checked every second and the changed
+    // weights are given to the running Solver. null - the built-in weights
+    public final static String WEIGHTS_FILE = null;
+
     int frames = 1;
+    int weightFrames = 0;
+    private long weightsModified = 0;
 
     @Override
     public void create() {
@@ -57,15 +92,24 @@ public class Tetris extends Game {
         if (HINTS || AUTOPLAY) {
             solver = new Solver(game);
             solver.setSolving(HINTS || AUTOPLAY);
-            solverThread = new SolverThread(solver);
-            solverThread.start();
+            solver.setParallelism(SOLVER_THREADS);
+            solver.setBeam(BEAM_WIDTH, BEAM_DEPTH);
+            solver.setExpectimax(EXPECTIMAX_WIDTH, EXPECTIMAX_DEPTH);
+            solver.setAdaptive(ADAPTIVE);
+            solver.setAnytime(ANYTIME);
+            solver.setPondering(PONDERING);
         }
         if (AUTOPLAY) {
             if (ROBOT) player = new Robot(solver, game);
             else player = new Player(solver, game);
+            solver.setAgent(player);
             original = Gdx.input;
             Gdx.input = player;
         }
+        if (HINTS || AUTOPLAY) {
+            solverThread = new SolverThread(solver);
+            solverThread.start();
+        }
 
         renderer = new GameRenderer(game, solver);
         setScreen(renderer);
@@ -121,6 +165,13 @@ public class Tetris extends Game {
                 controller.update(game);
                 renderer.update(game);
                 if (HINTS || AUTOPLAY) {
+                    // the old thread may still finish its last search, two threads must not share the solver
+                    try {
+                        solverThread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
                     solver.update(game);
                     solverThread = new SolverThread(solver);
                     solverThread.start();
@@ -135,7 +186,28 @@ public class Tetris extends Game {
                     frames = 1;
                 }
             }
+            if (ROBOT && frames >= ROBOT_FRAMES) {
+                game.executeCommand(1);
+                frames = 1;
+            }
         }
         frames++;
+        if (WEIGHTS_FILE != null && solver != null && ++weightFrames >= 60) {
+            reloadWeights();
+            weightFrames = 0;
+        }
+    }
+
+    // A broken file keeps the current weights
+    private void reloadWeights() {
+        Path path = Paths.get(WEIGHTS_FILE);
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            if (modified == weightsModified) return;
+            weightsModified = modified;
+            solver.setEvaluator(EvaluationCounter.load(path));
+        } catch (IOException | IllegalArgumentException e) {
+            Gdx.app.error("Tetris", "Weights are not loaded from " + path, e);
+        }
     }
 }
\ No newline at end of file
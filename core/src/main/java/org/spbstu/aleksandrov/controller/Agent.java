@@ -0,0 +1,11 @@
+package org.spbstu.aleksandrov.controller;
+
+import org.spbstu.aleksandrov.model.GameSession;
+
+// Performs the movements found by the Solver in the GameSession
+public interface Agent {
+
+    boolean takeAction();
+
+    void update(GameSession gameSession);
+}
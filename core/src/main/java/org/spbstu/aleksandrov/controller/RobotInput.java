@@ -4,8 +4,9 @@ import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputProcessor;
 import org.spbstu.aleksandrov.model.GameSession;
 
-public abstract class RobotInput implements Input {
+public abstract class RobotInput implements Input, Agent {
 
+    @Override
     public boolean takeAction() {
         return false;
     }
@@ -260,6 +261,7 @@ public abstract class RobotInput implements Input {
 
     }
 
+    @Override
     public void update(GameSession gameSession) {
     }
 }
@@ -0,0 +1,49 @@
+package org.spbstu.aleksandrov.headless;
+
+public class GameResult {
+
+    private final long seed;
+    private final int score;
+    private final int linesCleared;
+    private final int pieces;
+    private final int level;
+    private final long nanos;
+
+    public GameResult(long seed, int score, int linesCleared, int pieces, int level, long nanos) {
+        this.seed = seed;
+        this.score = score;
+        this.linesCleared = linesCleared;
+        this.pieces = pieces;
+        this.level = level;
+        this.nanos = nanos;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    public int getPieces() {
+        return pieces;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "seed " + seed + ", score " + score + ", lines " + linesCleared + ", pieces " + pieces + ", level " + level;
+    }
+}
@@ -0,0 +1,66 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.spbstu.aleksandrov.model.GameSession;
+import org.spbstu.aleksandrov.solver.Solver;
+
+import java.util.function.BooleanSupplier;
+
+// Plays a GameSession with the Solver as fast as the CPU allows, without the render loop. No libGDX classes are
+// used, so the engine runs on machines without a display.
+public class HeadlessEngine {
+
+    private final GameSession gameSession;
+    private final Solver solver;
+    private final long seed;
+    private int pieces = 0;
+
+    private HeadlessEngine(GameSession gameSession, long seed) {
+        this.gameSession = gameSession;
+        this.solver = new Solver(gameSession);
+        this.seed = seed;
+    }
+
+    public HeadlessEngine(GameSession gameSession) {
+        this(gameSession, 0);
+    }
+
+    // The game with the given seed, replays the same sequence of tetrominoes
+    public HeadlessEngine(long seed) {
+        this(new GameSession(0, seed), seed);
+    }
+
+    // Places the falling tetromino where the solver decides, returns false when the game is over
+    public boolean step() {
+        if (gameSession.isGameOver()) return false;
+        solver.solve();
+        gameSession.submit(solver.getCommand());
+        gameSession.executeCommand(Integer.MAX_VALUE);
+        pieces++;
+        return !gameSession.isGameOver();
+    }
+
+    // Plays until the game is over or maxPieces tetrominoes are placed
+    public GameResult play(int maxPieces) {
+        return play(maxPieces, () -> false);
+    }
+
+    // Also stops before the next tetromino once stop is true, e.g. when another thread no longer needs the game
+    public GameResult play(int maxPieces, BooleanSupplier stop) {
+        long start = System.nanoTime();
+        while (pieces < maxPieces && !stop.getAsBoolean() && step()) ;
+        return new GameResult(seed, gameSession.getScore(), gameSession.getLinesCleared(), pieces,
+                gameSession.getLevel(), System.nanoTime() - start);
+    }
+
+    public GameSession getGameSession() {
+        return gameSession;
+    }
+
+    public Solver getSolver() {
+        return solver;
+    }
+
+    public int getPieces() {
+        return pieces;
+    }
+}
@@ -0,0 +1,43 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.spbstu.aleksandrov.solver.EvaluationCounter;
+import org.spbstu.aleksandrov.solver.Evaluator;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Plays games with the solver without a display and reports the results.
+// Arguments: [number of games = 10] [max pieces per game = unlimited] [seed = random] [threads = all cores]
+// [beam width = 0, exhaustive search] [beam depth = 4] [anytime = false] [weights file = the built-in weights]
+public class HeadlessRunner {
+
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int maxPieces = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int beamWidth = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int beamDepth = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+        boolean anytime = args.length > 6 && Boolean.parseBoolean(args[6]);
+        Evaluator evaluator = args.length > 7 ? EvaluationCounter.load(Paths.get(args[7])) : new EvaluationCounter();
+
+        Tournament runner = new Tournament(games, maxPieces, seed, threads);
+        runner.setSolverSetup(solver -> {
+            if (beamWidth > 0) solver.setBeam(beamWidth, beamDepth);
+            solver.setAnytime(anytime);
+            solver.setEvaluator(evaluator);
+        });
+        TournamentResult tournament = runner.play();
+        int i = 1;
+        for (GameResult result : tournament.getResults()) {
+            System.out.println("" + i++ + "," + result.getSeed() + "," + result.getScore() + "," +
+                    result.getPieces() + "," + result.getLinesCleared());
+        }
+        System.out.printf("seed: %d, games: %d, threads: %d%n", seed, games, threads);
+        System.out.printf("average score: %.1f, average lines: %.1f, average pieces: %.1f%n",
+                tournament.getAverageScore(), tournament.getAverageLines(), tournament.getAveragePieces());
+        double pps = tournament.getPiecesPerSecond();
+        System.out.printf("pieces: %d in %.1f s, %.0f pieces/s, %.0f pieces/h, speedup %.2f%n",
+                tournament.getTotalPieces(), tournament.getNanos() / 1e9, pps, pps * 3600, tournament.getSpeedup());
+    }
+}
@@ -0,0 +1,76 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.spbstu.aleksandrov.solver.Solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Plays independent games in parallel, every game has its own GameSession and Solver, so the threads share nothing
+// but the read-only tables. The seeds of the games are derived from the seed of the tournament, the results do not
+// depend on the number of threads.
+public class Tournament {
+
+    private final int games;
+    private final int maxPieces;
+    private final long seed;
+    private final int parallelism;
+    private Consumer<Solver> solverSetup = solver -> {};
+
+    public Tournament(int games, int maxPieces, long seed, int parallelism) {
+        if (games < 1) throw new IllegalArgumentException("games must be positive: " + games);
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.games = games;
+        this.maxPieces = maxPieces;
+        this.seed = seed;
+        this.parallelism = parallelism;
+    }
+
+    public Tournament(int games, int maxPieces, long seed) {
+        this(games, maxPieces, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Configures the solver of every game before it starts
+    public void setSolverSetup(Consumer<Solver> solverSetup) {
+        this.solverSetup = solverSetup;
+    }
+
+    public long[] seeds() {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] seeds = new long[games];
+        for (int i = 0; i < games; i++) seeds[i] = random.nextLong();
+        return seeds;
+    }
+
+    // Results are in the order of the seeds
+    public TournamentResult play() {
+        List<Callable<GameResult>> tasks = new ArrayList<>(games);
+        for (long gameSeed : seeds()) {
+            tasks.add(() -> {
+                HeadlessEngine engine = new HeadlessEngine(gameSeed);
+                solverSetup.accept(engine.getSolver());
+                return engine.play(maxPieces);
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.nanoTime();
+        try {
+            List<GameResult> results = new ArrayList<>(games);
+            for (Future<GameResult> future : pool.invokeAll(tasks)) results.add(future.get());
+            return new TournamentResult(results, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tournament is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Game failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
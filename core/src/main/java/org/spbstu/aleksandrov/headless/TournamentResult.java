@@ -0,0 +1,49 @@
+package org.spbstu.aleksandrov.headless;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TournamentResult {
+
+    private final List<GameResult> results;
+    private final long nanos; // wall time of the tournament
+
+    public TournamentResult(List<GameResult> results, long nanos) {
+        this.results = Collections.unmodifiableList(results);
+        this.nanos = nanos;
+    }
+
+    public List<GameResult> getResults() {
+        return results;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public double getAverageScore() {
+        return results.stream().mapToInt(GameResult::getScore).average().orElse(0);
+    }
+
+    public double getAverageLines() {
+        return results.stream().mapToInt(GameResult::getLinesCleared).average().orElse(0);
+    }
+
+    public double getAveragePieces() {
+        return results.stream().mapToInt(GameResult::getPieces).average().orElse(0);
+    }
+
+    public long getTotalPieces() {
+        return results.stream().mapToLong(GameResult::getPieces).sum();
+    }
+
+    // Throughput of all the threads together
+    public double getPiecesPerSecond() {
+        return getTotalPieces() / (nanos / 1e9);
+    }
+
+    // Sum of the game times divided by the wall time, close to the number of threads when the games scale
+    public double getSpeedup() {
+        return results.stream().mapToLong(GameResult::getNanos).sum() / (double) nanos;
+    }
+}
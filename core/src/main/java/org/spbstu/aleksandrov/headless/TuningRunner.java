@@ -0,0 +1,44 @@
+package org.spbstu.aleksandrov.headless;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Tunes the weights of the EvaluationCounter, continues from the checkpoint of the same mode if it exists. The
+// checkpoint is written after every generation and can be given to Tetris.WEIGHTS_FILE or HeadlessRunner as the
+// weights file.
+// Arguments: [generations = 50] [population = 50] [elite = 10] [games per candidate = 5] [max pieces per game = 1000]
+// [checkpoint = tuner.properties] [seed = 1] [threads = all cores] [survival = false]
+public class TuningRunner {
+
+    public static void main(String[] args) throws IOException {
+        int generations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int population = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int elite = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int games = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int maxPieces = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        Path checkpoint = Paths.get(args.length > 5 ? args[5] : "tuner.properties");
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+        int threads = args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors();
+        boolean survival = args.length > 8 && Boolean.parseBoolean(args[8]);
+
+        WeightTuner tuner = new WeightTuner(population, elite, games, maxPieces, seed, threads);
+        tuner.setSurvival(survival);
+        if (Files.exists(checkpoint)) {
+            tuner.restore(checkpoint);
+            System.out.printf("continued from %s after generation %d%n", checkpoint, tuner.getGeneration());
+        }
+        while (tuner.getGeneration() < generations) {
+            long start = System.nanoTime();
+            tuner.nextGeneration();
+            tuner.save(checkpoint);
+            int played = Arrays.stream(tuner.getPlayed()).sum();
+            double top = Arrays.stream(tuner.getFitness()).max().orElse(0);
+            System.out.printf("generation %d: top %.1f, best %.1f, games %d of %d, %.1f s%n", tuner.getGeneration(),
+                    top, tuner.getBestFitness(), played, population * games, (System.nanoTime() - start) / 1e9);
+        }
+        System.out.println("best weights: " + Arrays.toString(tuner.getBest()));
+    }
+}
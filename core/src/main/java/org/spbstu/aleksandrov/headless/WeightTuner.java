@@ -0,0 +1,333 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.spbstu.aleksandrov.solver.EvaluationCounter;
+import org.spbstu.aleksandrov.solver.Solver;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Tunes the weights of the EvaluationCounter with the cross-entropy method. Every generation samples the candidate
+// weights from a normal distribution, plays headless games with them and moves the distribution to the elite
+// candidates. The fitness of a candidate is the average score of its games, or the average number of pieces in the
+// survival mode. All the candidates of a generation play the same seeds, so they are compared on the same
+// tetrominoes, and the results do not depend on the number of threads.
+//
+// Every game of a candidate on a seed is a separate task, the pool runs them without waiting for the other candidates.
+// Once every racing candidate has played the first seeds, the ones with the total on them below dropRatio of the elite
+// boundary stop playing: their queued games are cancelled and the games they played past these seeds are not counted.
+public class WeightTuner {
+
+    private static final double INITIAL_DEVIATION = 0.5;
+    // Added to the variance of the elite, decreases with the generations, so the distribution does not collapse on
+    // the first lucky candidates
+    private static final double NOISE = 0.04;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int population;
+    private final int elite;
+    private final int games;
+    private final int maxPieces;
+    private final long seed;
+    private final int parallelism;
+    private boolean survival = new EvaluationCounter().isSurvival();
+    private double dropRatio = 0.5;
+    private Consumer<Solver> solverSetup = solver -> {};
+
+    // The distribution of the next generation
+    private double[] mean = new EvaluationCounter().getWeights();
+    private double[] deviation = new double[EvaluationCounter.WEIGHTS];
+    private int generation = 0;
+
+    // The best candidate that played all the games
+    private double[] best = mean.clone();
+    private double bestFitness = Double.NEGATIVE_INFINITY;
+
+    // The last generation
+    private double[][] candidates = new double[0][];
+    private double[] fitness = new double[0];
+    private int[] played = new int[0];
+
+    public WeightTuner(int population, int elite, int games, int maxPieces, long seed, int parallelism) {
+        if (elite < 1 || elite > population)
+            throw new IllegalArgumentException("elite must be in 1.." + population + ": " + elite);
+        if (games < 1) throw new IllegalArgumentException("games must be positive: " + games);
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.population = population;
+        this.elite = elite;
+        this.games = games;
+        this.maxPieces = maxPieces;
+        this.seed = seed;
+        this.parallelism = parallelism;
+        Arrays.fill(deviation, INITIAL_DEVIATION);
+    }
+
+    // The candidates are graded by the number of pieces and the evaluators reward every cleared line
+    public void setSurvival(boolean survival) {
+        this.survival = survival;
+    }
+
+    // 0 plays all the games with every candidate
+    public void setDropRatio(double dropRatio) {
+        if (dropRatio < 0 || dropRatio > 1) throw new IllegalArgumentException("dropRatio must be in 0..1: " + dropRatio);
+        this.dropRatio = dropRatio;
+    }
+
+    // Configures the solver of every game before it starts, the evaluator is set by the tuner
+    public void setSolverSetup(Consumer<Solver> solverSetup) {
+        this.solverSetup = solverSetup;
+    }
+
+    // Samples, plays and selects one generation
+    public void nextGeneration() {
+        SplittableRandom random = new SplittableRandom(seed + generation * GOLDEN_GAMMA);
+        long[] seeds = new long[games];
+        for (int i = 0; i < games; i++) seeds[i] = random.nextLong();
+        candidates = new double[population][EvaluationCounter.WEIGHTS];
+        for (double[] candidate : candidates) {
+            for (int j = 0; j < candidate.length; j++) candidate[j] = mean[j] + deviation[j] * gaussian(random);
+        }
+
+        // results[i][k] is the result of the candidate i on the seed k, the games are done in any order
+        double[][] results = new double[population][games];
+        boolean[][] done = new boolean[population][games];
+        // the totals of the candidates on the first seeds compared
+        double[] totals = new double[population];
+        played = new int[population];
+        boolean[] racing = new boolean[population];
+        Arrays.fill(racing, true);
+        // read by the running games of the candidates, they stop once the candidate is dropped
+        AtomicBoolean[] stopped = new AtomicBoolean[population];
+        for (int i = 0; i < population; i++) stopped[i] = new AtomicBoolean();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // the seeds go first, so the pool finishes the first seeds of all the candidates before the last ones
+            CompletionService<Game> service = new ExecutorCompletionService<>(pool);
+            List<List<Future<Game>>> futures = new ArrayList<>();
+            for (int i = 0; i < population; i++) futures.add(new ArrayList<>());
+            for (int k = 0; k < games; k++) {
+                for (int i = 0; i < population; i++) {
+                    Game game = new Game(i, k);
+                    double[] weights = candidates[i];
+                    long gameSeed = seeds[k];
+                    AtomicBoolean stop = stopped[i];
+                    futures.get(i).add(service.submit(() -> {
+                        game.result = play(weights, gameSeed, stop);
+                        return game;
+                    }));
+                }
+            }
+
+            int compared = 0;
+            for (int task = 0; task < population * games; task++) {
+                Future<Game> future = service.take();
+                // the cancelled games of the dropped candidates come back at once
+                if (future.isCancelled()) continue;
+                Game game = future.get();
+                results[game.candidate][game.index] = survival ? game.result.getPieces() : game.result.getScore();
+                done[game.candidate][game.index] = true;
+                // the comparison on the next seed waits for the slowest racing candidate on it, not the other games
+                while (compared < games && isPlayed(done, racing, compared)) {
+                    for (int i = 0; i < population; i++) {
+                        if (!racing[i]) continue;
+                        totals[i] += results[i][compared];
+                        played[i]++;
+                    }
+                    compared++;
+                    if (compared < games && dropRatio > 0 && drop(totals, racing)) {
+                        for (int i = 0; i < population; i++) {
+                            if (racing[i] || stopped[i].get()) continue;
+                            stopped[i].set(true);
+                            for (Future<Game> other : futures.get(i)) other.cancel(false);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tuning is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Game failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        fitness = new double[population];
+        for (int i = 0; i < population; i++) fitness[i] = totals[i] / played[i];
+        Integer[] order = rank(fitness, played);
+        for (int j = 0; j < EvaluationCounter.WEIGHTS; j++) {
+            double sum = 0;
+            for (int k = 0; k < elite; k++) sum += candidates[order[k]][j];
+            mean[j] = sum / elite;
+            double variance = 0;
+            for (int k = 0; k < elite; k++) variance += Math.pow(candidates[order[k]][j] - mean[j], 2);
+            deviation[j] = Math.sqrt(variance / elite + NOISE / (generation + 1));
+        }
+        int first = order[0];
+        if (played[first] == games && fitness[first] > bestFitness) {
+            bestFitness = fitness[first];
+            best = candidates[first].clone();
+        }
+        generation++;
+    }
+
+    // Indices of the candidates from the best. The candidates that raced longer go first, a dropped candidate was
+    // below the racing ones on the games it played, its average over the first seeds is not comparable with the
+    // average over all of them. Stable, equal candidates keep the order of the sampling.
+    static Integer[] rank(double[] fitness, int[] played) {
+        Integer[] order = IntStream.range(0, fitness.length).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> -played[i]).thenComparingDouble(i -> -fitness[i]));
+        return order;
+    }
+
+    // Whether every racing candidate played the seed
+    private static boolean isPlayed(boolean[][] done, boolean[] racing, int seed) {
+        for (int i = 0; i < racing.length; i++) {
+            if (racing[i] && !done[i][seed]) return false;
+        }
+        return true;
+    }
+
+    // Stops the candidates far below the elite boundary of the racing ones, all of them played the same games.
+    // Returns whether any candidate stopped.
+    private boolean drop(double[] totals, boolean[] racing) {
+        double[] racers = IntStream.range(0, population).filter(i -> racing[i]).mapToDouble(i -> totals[i]).toArray();
+        if (racers.length <= elite) return false;
+        Arrays.sort(racers);
+        double boundary = racers[racers.length - elite];
+        boolean dropped = false;
+        for (int i = 0; i < population; i++) {
+            if (racing[i] && totals[i] < boundary * dropRatio) {
+                racing[i] = false;
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    // A game of the candidate on the seed with the index
+    private static final class Game {
+        private final int candidate;
+        private final int index;
+        private GameResult result;
+
+        private Game(int candidate, int index) {
+            this.candidate = candidate;
+            this.index = index;
+        }
+    }
+
+    private GameResult play(double[] weights, long gameSeed, AtomicBoolean stop) {
+        HeadlessEngine engine = new HeadlessEngine(gameSeed);
+        solverSetup.accept(engine.getSolver());
+        engine.getSolver().setEvaluator(new EvaluationCounter(weights, survival));
+        return engine.play(maxPieces, stop::get);
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    // Writes the state after the last generation. The file is replaced at once, so an interrupted tuner leaves the
+    // previous checkpoint. It is a weights file of EvaluationCounter.load with the best weights.
+    public void save(Path checkpoint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("weights", format(best));
+        properties.setProperty("survival", String.valueOf(survival));
+        properties.setProperty("fitness", String.valueOf(bestFitness));
+        properties.setProperty("generation", String.valueOf(generation));
+        properties.setProperty("mean", format(mean));
+        properties.setProperty("deviation", format(deviation));
+        for (int i = 0; i < candidates.length; i++) {
+            properties.setProperty("candidate." + i, format(candidates[i]));
+            properties.setProperty("candidate." + i + ".fitness", String.valueOf(fitness[i]));
+            properties.setProperty("candidate." + i + ".games", String.valueOf(played[i]));
+        }
+
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary)) {
+            properties.store(writer, "WeightTuner checkpoint");
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Continues from the checkpoint, the next generation is the one after the saved. The checkpoint must be tuned in
+    // the same mode, the fitness of the modes is not comparable.
+    public void restore(Path checkpoint) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(checkpoint)) {
+            properties.load(reader);
+        }
+        boolean tuned = Boolean.parseBoolean(properties.getProperty("survival"));
+        if (tuned != survival)
+            throw new IllegalArgumentException("The checkpoint is tuned with survival " + tuned + ", not " + survival);
+        best = parse(properties, "weights");
+        bestFitness = Double.parseDouble(properties.getProperty("fitness"));
+        generation = Integer.parseInt(properties.getProperty("generation"));
+        mean = parse(properties, "mean");
+        deviation = parse(properties, "deviation");
+        candidates = new double[0][];
+        fitness = new double[0];
+        played = new int[0];
+    }
+
+    private static String format(double[] values) {
+        return Arrays.stream(values).mapToObj(Double::toString).collect(Collectors.joining(", "));
+    }
+
+    private static double[] parse(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) throw new IllegalArgumentException("No " + key + " in the checkpoint");
+        double[] result = Arrays.stream(value.split(",")).mapToDouble(s -> Double.parseDouble(s.trim())).toArray();
+        if (result.length != EvaluationCounter.WEIGHTS)
+            throw new IllegalArgumentException(key + " must have " + EvaluationCounter.WEIGHTS + " values: " + result.length);
+        return result;
+    }
+
+    // Number of the generations played
+    public int getGeneration() {
+        return generation;
+    }
+
+    public double[] getBest() {
+        return best.clone();
+    }
+
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    // Fitness of the candidates of the last generation, in the order of the sampling
+    public double[] getFitness() {
+        return fitness.clone();
+    }
+
+    // Games played by the candidates of the last generation
+    public int[] getPlayed() {
+        return played.clone();
+    }
+}
@@ -0,0 +1,20 @@
+package org.spbstu.aleksandrov.model;
+
+import java.util.Random;
+
+// The default randomizer of the game, every run gets a different sequence
+public class BagRandomizer implements Randomizer {
+
+    private final Random random = new Random();
+
+    @Override
+    public void shuffle(Tetromino.Type[] bucket) {
+        int n = bucket.length;
+        for (int i = n - 1; i > 1; i--) {
+            int j = random.nextInt(i);
+            Tetromino.Type t = bucket[j];
+            bucket[j] = bucket[i];
+            bucket[i] = t;
+        }
+    }
+}
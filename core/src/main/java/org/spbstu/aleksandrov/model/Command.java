@@ -0,0 +1,29 @@
+package org.spbstu.aleksandrov.model;
+
+import org.spbstu.aleksandrov.model.Tetromino.Movement;
+
+import java.util.Arrays;
+
+// Movements of the falling tetromino number tCounter before the hard drop, submitted by the agent to the game session
+public final class Command {
+
+    private final int tCounter;
+    private final Movement[] movements;
+
+    public Command(int tCounter, Movement[] movements, int size) {
+        this.tCounter = tCounter;
+        this.movements = Arrays.copyOf(movements, size);
+    }
+
+    public int getTCounter() {
+        return tCounter;
+    }
+
+    public int size() {
+        return movements.length;
+    }
+
+    public Movement getMovement(int i) {
+        return movements[i];
+    }
+}
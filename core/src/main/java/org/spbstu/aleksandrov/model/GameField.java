@@ -3,160 +3,394 @@ package org.spbstu.aleksandrov.model;
 import org.spbstu.aleksandrov.model.Tetromino.Coordinate;
 
 import java.util.ArrayList;
-import java.util.Collections;
-
-import static org.spbstu.aleksandrov.model.Tetromino.Movement.*;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 public class GameField {
 
-    private final CellType[][] gameField = new CellType[22][10];
+    public static final int HEIGHT = 22;
+    public static final int WIDTH = 10;
+    public static final int FULL_ROW = (1 << WIDTH) - 1;
+
+    // Occupancy of the field, bit j of rows[i] is set when the cell (j, i) is not empty
+    private final int[] rows = new int[HEIGHT];
+    // Colors of the stacked cells, used only for rendering
+    private final CellType[][] gameField = new CellType[HEIGHT][WIDTH];
+
+    // Skyline of the field, the height of the column is the index of its topmost occupied cell + 1
+    private final int[] columnHeights = new int[WIDTH];
+    // Number of empty cells below the top of each column
+    private final int[] columnHoles = new int[WIDTH];
+    private int holes = 0;
 
-    private static final Coordinate[][/*number of attempt*/] wallKickData = {
-            {new Coordinate(-1, 0), new Coordinate(-1, 1),
-                    new Coordinate(0, -2), new Coordinate(-1, -2)}
-    };
+    // Zobrist hash of the occupied cells
+    private static final long[][] ZOBRIST_KEYS = new long[HEIGHT][WIDTH];
+    private long hash = 0;
 
-    private static final Coordinate[][/*number of attempt*/] wallKickDataI = {
-            {new Coordinate(-2, 0), new Coordinate(1, 0),
-                    new Coordinate(-2, -1), new Coordinate(1, 2)},
-            {new Coordinate(-1, 0), new Coordinate(2, 0),
-                    new Coordinate(-1, 2), new Coordinate(2, -1)},
-    };
+    static {
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        for (long[] row : ZOBRIST_KEYS)
+            for (int j = 0; j < WIDTH; j++) row[j] = random.nextLong();
+    }
+
+    // Move log of apply() and undo(), allocated when the first move is applied
+    private static final int LOG_CAPACITY = 32;
+    private Move[] log;
+    private int logSize = 0;
+
+    private static final class Move {
+        private Tetromino.Type type;
+        private int state;
+        private int x;
+        private int y;
+        // bit i is set when the line i was removed
+        private int lines;
+        // colors of the removed lines, from the bottom up
+        private final CellType[][] removedLines = new CellType[PieceTable.CELLS][WIDTH];
+        private final int[] columnHeights = new int[WIDTH];
+        private final int[] columnHoles = new int[WIDTH];
+        private int holes;
+        private long hash;
+    }
 
     @SuppressWarnings("unused")
     public enum CellType {
         ORANGE, BLUE, GREEN, RED, PURPLE, CYAN, YELLOW, SPACE
     }
 
+    // CellType declares the colors in the same order as Tetromino.Color, and Tetromino.Type the tetrominoes of them
+    private static final CellType[] CELL_TYPES = CellType.values();
+
     public GameField() {
-        for (int i = 0; i < 22; i++) {
-            for (int j = 0; j < 10; j++) {
-                gameField[i][j] = CellType.SPACE;
-            }
-        }
+        for (CellType[] row : gameField) Arrays.fill(row, CellType.SPACE);
     }
 
     public boolean areCellsEmpty(ArrayList<Tetromino.Coordinate> coordinates) {
-        for (Tetromino.Coordinate coordinate : coordinates) {
-            if (coordinate.getX() > 9 || coordinate.getX() < 0 || coordinate.getY() > 21 || coordinate.getY() < 0)
-                return false;
-            if (gameField[coordinate.getY()][coordinate.getX()] != CellType.SPACE) return false;
+        for (int k = 0; k < coordinates.size(); k++) {
+            Coordinate coordinate = coordinates.get(k);
+            int x = coordinate.getX();
+            int y = coordinate.getY();
+            if (x > 9 || x < 0 || y > 21 || y < 0) return false;
+            if ((rows[y] & (1 << x)) != 0) return false;
         }
         return true;
     }
 
-    ArrayList<Integer> linesToClear = new ArrayList<>(4);
+    // bit i is set when the line i is full and waits for cleanLines()
+    private int linesToClear = 0;
 
     // Pass to this method the coordinates of the recently stacked tetromino
     public int checkLinesToClear(ArrayList<Coordinate> coordinates) {
 
         int result = 0;
 
-        for (Coordinate coordinate : coordinates) {
-
-            int i = coordinate.getY();
-            if (linesToClear.contains(i)) continue;
-            boolean fullLine = true;
-
-            for (int j = 0; j < 10; j++) {
-                if (gameField[i][j] == CellType.SPACE) {
-                    fullLine = false;
-                    break;
-                }
-            }
-            if (fullLine) {
+        for (int k = 0; k < coordinates.size(); k++) {
+            int i = coordinates.get(k).getY();
+            if ((linesToClear & (1 << i)) != 0) continue;
+            if (rows[i] == FULL_ROW) {
                 result++;
-                linesToClear.add(i);
+                linesToClear |= 1 << i;
             }
         }
         return result;
     }
 
     public void cleanLines() {
-        linesToClear.sort(Collections.reverseOrder());
+        if (linesToClear == 0) return;
+        removeLines(linesToClear);
+        linesToClear = 0;
+    }
+
+    // bit i of lines is set when the line i has to be removed
+    private void removeLines(int lines) {
         // move the whole field above cleaned lines down
-        for (int n : linesToClear) {
-            for (int j = n + 1; j < 22; j++) {
-                System.arraycopy(gameField[j], 0, gameField[j - 1], 0, 10);
-                if (j == 21) for (int m = 0; m < 10; m++) gameField[j][m] = CellType.SPACE;
+        int target = 0;
+        for (int i = 0; i < HEIGHT; i++) {
+            if ((lines & (1 << i)) != 0) continue;
+            if (target != i) {
+                rows[target] = rows[i];
+                System.arraycopy(gameField[i], 0, gameField[target], 0, WIDTH);
             }
+            target++;
+        }
+        for (; target < HEIGHT; target++) {
+            rows[target] = 0;
+            Arrays.fill(gameField[target], CellType.SPACE);
         }
-        linesToClear.clear();
+        // full lines lie below the top of every column and contain no holes, but when the topmost line of a column
+        // is cleared the empty cells below it are not holes anymore
+        int cleared = Integer.bitCount(lines);
+        for (int j = 0; j < WIDTH; j++) {
+            int height = columnHeights[j] - cleared;
+            while (height > 0 && (rows[height - 1] & (1 << j)) == 0) height--;
+            int exposed = columnHeights[j] - cleared - height;
+            columnHoles[j] -= exposed;
+            holes -= exposed;
+            columnHeights[j] = height;
+        }
+        hash = computeHash();
     }
 
-    public void rotateOnField(Tetromino.Movement direction, Tetromino tetromino) {
-        // direction = -1 is clockwise
+    private long computeHash() {
+        long result = 0;
+        for (int i = 0; i < HEIGHT; i++) {
+            for (int rest = rows[i]; rest != 0; rest &= rest - 1)
+                result ^= ZOBRIST_KEYS[i][Integer.numberOfTrailingZeros(rest)];
+        }
+        return result;
+    }
 
-        int state = tetromino.getState();
-        tetromino.rotate(direction);
-
-        boolean stable = areCellsEmpty(tetromino.getCoordinates());
-
-        int attempt;
-        Coordinate[][] source;
-
-        if (tetromino.getType() == Tetromino.Type.I) source = wallKickDataI;
-        else source = wallKickData;
-
-        Coordinate offset = new Coordinate(0, 0);
-
-        if (!stable) {
-            // wall kicks
-
-            attempt = 0;
-
-            do {
-                if (attempt != 0) {
-                    offset.negation();
-                    tetromino.move(offset);
-                }
-                if (tetromino.getType() != Tetromino.Type.I) {
-                    offset = source[0][attempt].deepClone();
-                    if (state % 2 == 1) offset.negation();
-                    if (state / 2 == 1) offset.setX(-offset.getX());
-                    if (direction == ROT_L && state % 2 == 0) offset.setX(-offset.getX());
-                } else {
-                    int index;
-                    if (direction == ROT_L) index = (state + 1) % 2;
-                    else index = state % 2;
-                    offset = source[index][attempt].deepClone();
-                    if ((state > 1 && direction == ROT_R) ||
-                            (state > 0 && state < 3 && direction == ROT_L))
-                        offset.negation();
-                }
-                tetromino.move(offset);
-                attempt++;
-                stable = areCellsEmpty(tetromino.getCoordinates());
-            } while (!stable && attempt < 4);
+    // Whether the tetromino of the type in the state with the rotation point at (x, y) fits on the field
+    public boolean isPositionEmpty(Tetromino.Type type, int state, int x, int y) {
+        int left = x + PieceTable.minX(type, state);
+        int bottom = y + PieceTable.minY(type, state);
+        if (left < 0 || x + PieceTable.maxX(type, state) > 9 || bottom < 0 || y + PieceTable.maxY(type, state) > 21)
+            return false;
+        int[] masks = PieceTable.rowMasks(type, state);
+        for (int i = 0; i < masks.length; i++) {
+            if ((rows[bottom + i] & (masks[i] << left)) != 0) return false;
         }
-        if (!stable) {
-            offset.negation();
-            tetromino.move(offset);
-            tetromino.rotate(direction.negation());
-            return;
+        return true;
+    }
+
+    // Returns the first successful attempt of the rotation (see PieceTable.ATTEMPTS) or -1 if the tetromino
+    // can not be rotated
+    public int findRotation(Tetromino.Type type, int state, int x, int y, Tetromino.Movement direction) {
+        int newState = PieceTable.rotatedState(state, direction);
+        for (int attempt = 0; attempt < PieceTable.ATTEMPTS; attempt++) {
+            if (isPositionEmpty(type, newState,
+                    x + PieceTable.kickX(type, state, direction, attempt),
+                    y + PieceTable.kickY(type, state, direction, attempt)))
+                return attempt;
         }
+        return -1;
+    }
 
-        // if the state has changed, then a rotation has been performed, the Listener is notified
-        if (state != tetromino.getState()) tetromino.notifyListener(direction);
+    public void rotateOnField(Tetromino.Movement direction, Tetromino tetromino) {
+        Tetromino.Type type = tetromino.getType();
+        int state = tetromino.getState();
+        int x = tetromino.getRotationPoint().getX();
+        int y = tetromino.getRotationPoint().getY();
+
+        int attempt = findRotation(type, state, x, y, direction);
+        if (attempt < 0) return;
+
+        tetromino.set(PieceTable.rotatedState(state, direction),
+                x + PieceTable.kickX(type, state, direction, attempt),
+                y + PieceTable.kickY(type, state, direction, attempt));
+
+        // the rotation has been performed, the Listener is notified
+        tetromino.notifyListener(direction);
+    }
+
+    // The number of rows the tetromino of the type in the state with the rotation point at (x, y) can fall
+    public int dropDistance(Tetromino.Type type, int state, int x, int y) {
+        int left = x + PieceTable.minX(type, state);
+        int[] bottoms = PieceTable.columnBottoms(type, state);
+        if (left < 0 || left + bottoms.length > WIDTH) return 0;
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < bottoms.length; i++) {
+            int distance = y + bottoms[i] - columnHeights[left + i];
+            // the tetromino is under an overhang, fall back to probing row by row
+            if (distance < 0) return probeDropDistance(type, state, x, y);
+            if (distance < result) result = distance;
+        }
+        return result;
+    }
+
+    public int dropDistance(Tetromino tetromino) {
+        return dropDistance(tetromino.getType(), tetromino.getState(),
+                tetromino.getRotationPoint().getX(), tetromino.getRotationPoint().getY());
+    }
+
+    private int probeDropDistance(Tetromino.Type type, int state, int x, int y) {
+        int result = 0;
+        while (isPositionEmpty(type, state, x, y - result - 1)) result++;
+        return result;
     }
 
     public void stackTetromino(Tetromino tetromino) {
+        CellType cellType = CELL_TYPES[tetromino.getColor().ordinal()];
         for (Tetromino.Coordinate coordinate : tetromino.getCoordinates()) {
-            gameField[coordinate.getY()][coordinate.getX()] = CellType.valueOf(String.valueOf(tetromino.getColor()));
+            fillCell(coordinate.getX(), coordinate.getY(), cellType);
+        }
+    }
+
+    private void fillCell(int x, int y, CellType cellType) {
+        rows[y] |= 1 << x;
+        gameField[y][x] = cellType;
+        hash ^= ZOBRIST_KEYS[y][x];
+        if (y >= columnHeights[x]) {
+            columnHoles[x] += y - columnHeights[x];
+            holes += y - columnHeights[x];
+            columnHeights[x] = y + 1;
+        } else {
+            columnHoles[x]--;
+            holes--;
         }
     }
 
+    // Stacks the tetromino of the type in the state with the rotation point at (x, y) and removes the full lines.
+    // The changes are recorded in the move log and can be reverted by undo(). Returns the number of removed lines.
+    // The position must be empty, otherwise undo() would clear the cells the tetromino did not fill.
+    public int apply(Tetromino.Type type, int state, int x, int y) {
+        if (!isPositionEmpty(type, state, x, y))
+            throw new IllegalArgumentException("Position is occupied: " + type + " " + state + " (" + x + ", " + y + ")");
+        if (log == null) log = new Move[LOG_CAPACITY];
+        if (logSize == LOG_CAPACITY) throw new IllegalStateException("Move log is full");
+        if (log[logSize] == null) log[logSize] = new Move();
+        Move move = log[logSize++];
+
+        move.type = type;
+        move.state = state;
+        move.x = x;
+        move.y = y;
+        System.arraycopy(columnHeights, 0, move.columnHeights, 0, WIDTH);
+        System.arraycopy(columnHoles, 0, move.columnHoles, 0, WIDTH);
+        move.holes = holes;
+        move.hash = hash;
+
+        CellType cellType = CELL_TYPES[type.ordinal()];
+        for (int c = 0; c < PieceTable.CELLS; c++)
+            fillCell(x + PieceTable.cellX(type, state, c), y + PieceTable.cellY(type, state, c), cellType);
+
+        int lines = 0;
+        for (int c = 0; c < PieceTable.CELLS; c++) {
+            int i = y + PieceTable.cellY(type, state, c);
+            if (rows[i] == FULL_ROW) lines |= 1 << i;
+        }
+        int removed = 0;
+        for (int rest = lines; rest != 0; rest &= rest - 1)
+            System.arraycopy(gameField[Integer.numberOfTrailingZeros(rest)], 0, move.removedLines[removed++], 0, WIDTH);
+        move.lines = lines;
+        if (lines != 0) removeLines(lines);
+        return Integer.bitCount(lines);
+    }
+
+    public int apply(Tetromino tetromino) {
+        return apply(tetromino.getType(), tetromino.getState(),
+                tetromino.getRotationPoint().getX(), tetromino.getRotationPoint().getY());
+    }
+
+    // Reverts the last apply()
+    public void undo() {
+        if (logSize == 0) throw new IllegalStateException("Move log is empty");
+        Move move = log[--logSize];
+
+        if (move.lines != 0) {
+            // move the remaining lines back up and put the removed lines into their places, from the top down
+            int source = HEIGHT - 1 - Integer.bitCount(move.lines);
+            int removed = Integer.bitCount(move.lines) - 1;
+            for (int i = HEIGHT - 1; i >= 0; i--) {
+                if ((move.lines & (1 << i)) != 0) {
+                    rows[i] = FULL_ROW;
+                    System.arraycopy(move.removedLines[removed--], 0, gameField[i], 0, WIDTH);
+                } else if (source != i) {
+                    rows[i] = rows[source];
+                    System.arraycopy(gameField[source--], 0, gameField[i], 0, WIDTH);
+                } else source--;
+            }
+        }
+
+        for (int c = 0; c < PieceTable.CELLS; c++) {
+            int x = move.x + PieceTable.cellX(move.type, move.state, c);
+            int y = move.y + PieceTable.cellY(move.type, move.state, c);
+            rows[y] &= ~(1 << x);
+            gameField[y][x] = CellType.SPACE;
+        }
+
+        System.arraycopy(move.columnHeights, 0, columnHeights, 0, WIDTH);
+        System.arraycopy(move.columnHoles, 0, columnHoles, 0, WIDTH);
+        holes = move.holes;
+        hash = move.hash;
+    }
+
+    public int getLogSize() {
+        return logSize;
+    }
+
+    public void clear() {
+        Arrays.fill(rows, 0);
+        for (CellType[] row : gameField) Arrays.fill(row, CellType.SPACE);
+        Arrays.fill(columnHeights, 0);
+        Arrays.fill(columnHoles, 0);
+        holes = 0;
+        hash = 0;
+        linesToClear = 0;
+        logSize = 0;
+    }
+
+    public boolean isCellEmpty(int x, int y) {
+        return (rows[y] & (1 << x)) == 0;
+    }
+
+    public int getRow(int y) {
+        return rows[y];
+    }
+
+    public int getRowFill(int y) {
+        return Integer.bitCount(rows[y]);
+    }
+
+    public int getColumnHeight(int x) {
+        return columnHeights[x];
+    }
+
+    public int getColumnHoles(int x) {
+        return columnHoles[x];
+    }
+
+    public int getHoles() {
+        return holes;
+    }
+
+    // Zobrist hash of the occupancy of the field, the colors are not taken into account
+    public long getHash() {
+        return hash;
+    }
+
+    // Colors of the cells, do not modify: use stackTetromino() and clear()
     public CellType[][] getGameField() {
         return gameField;
     }
 
+    // Copies the cells of the other field, the move log is emptied
+    public void set(GameField other) {
+        System.arraycopy(other.rows, 0, rows, 0, HEIGHT);
+        for (int i = 0; i < HEIGHT; i++)
+            System.arraycopy(other.gameField[i], 0, gameField[i], 0, WIDTH);
+        System.arraycopy(other.columnHeights, 0, columnHeights, 0, WIDTH);
+        System.arraycopy(other.columnHoles, 0, columnHoles, 0, WIDTH);
+        holes = other.holes;
+        hash = other.hash;
+        linesToClear = 0;
+        logSize = 0;
+    }
+
+    // Replaces the cells with the occupancy masks of the rows and the heights of the columns of another field. The
+    // cells are left without colors (CellType.SPACE), the move log is emptied.
+    public void setOccupancy(int[] rows, int[] columnHeights) {
+        System.arraycopy(rows, 0, this.rows, 0, HEIGHT);
+        for (CellType[] row : gameField) Arrays.fill(row, CellType.SPACE);
+        System.arraycopy(columnHeights, 0, this.columnHeights, 0, WIDTH);
+        holes = 0;
+        for (int j = 0; j < WIDTH; j++) {
+            columnHoles[j] = 0;
+            for (int i = 0; i < columnHeights[j]; i++) {
+                if ((rows[i] & (1 << j)) == 0) columnHoles[j]++;
+            }
+            holes += columnHoles[j];
+        }
+        hash = computeHash();
+        linesToClear = 0;
+        logSize = 0;
+    }
+
     @SuppressWarnings("MethodDoesntCallSuperMethod")
     @Override
     public GameField clone() {
         GameField newGameField = new GameField();
-        for (int j = 0; j < 10; j++)
-            for (int i = 0; i < 22; i++)
-                newGameField.gameField[i][j] = this.gameField[i][j];
+        newGameField.set(this);
         return newGameField;
     }
 }
@@ -5,11 +5,10 @@ import org.spbstu.aleksandrov.network.util.GameStateUtil;
 import org.spbstu.aleksandrov.solver.Solver;
 
 import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.DoubleStream;
 import java.util.stream.Stream;
 
-import static org.spbstu.aleksandrov.model.GameField.CellType.SPACE;
 import static org.spbstu.aleksandrov.model.Tetromino.Type.*;
 
 public class GameSession {
@@ -19,7 +18,7 @@ public class GameSession {
             48, 43, 38, 33, 28, 23, 18, 13, 8, 6, 5, 5, 5, 4, 4, 4, 3, 3, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1
     };
     private final int[] POINTS = {40, 100, 300, 1200};
-    private final Random random = new Random();
+    private final Randomizer randomizer;
     private Tetromino fallingTetromino;
     private Tetromino fallingProjection;
     private Tetromino nextTetromino;
@@ -34,7 +33,17 @@ public class GameSession {
     private boolean gameOver = false;
 
     public GameSession(int highScore) {
+        this(highScore, new BagRandomizer());
+    }
+
+    // The same seed gives the same sequence of tetrominoes
+    public GameSession(int highScore, long seed) {
+        this(highScore, new SeededRandomizer(seed));
+    }
+
+    public GameSession(int highScore, Randomizer randomizer) {
         this.highScore = highScore;
+        this.randomizer = randomizer;
         shuffleBucket();
         nextTetromino = new Tetromino(bucket[counter]);
         counter++;
@@ -44,10 +53,25 @@ public class GameSession {
     }
 
     public void updateFallingProjection() {
-        fallingProjection = fallingTetromino.clone();
-        while (gameField.areCellsEmpty(fallingProjection.getCoordinates()))
-            fallingProjection.move(0, -1);
-        fallingProjection.move(0, 1);
+        int state = fallingTetromino.getState();
+        int x = fallingTetromino.getRotationPoint().getX();
+        int y = fallingTetromino.getRotationPoint().getY();
+        if (fallingProjection == null || fallingProjection.getType() != fallingTetromino.getType())
+            fallingProjection = fallingTetromino.clone();
+        fallingProjection.set(state, x, y - gameField.dropDistance(fallingTetromino));
+    }
+
+    // Moves or rotates the falling tetromino if the field allows it
+    public void move(Tetromino.Movement movement) {
+        if (movement == Tetromino.Movement.ROT_L || movement == Tetromino.Movement.ROT_R) {
+            gameField.rotateOnField(movement, fallingTetromino);
+        } else {
+            int x = fallingTetromino.getRotationPoint().getX();
+            int y = fallingTetromino.getRotationPoint().getY();
+            fallingTetromino.move(movement);
+            if (!gameField.areCellsEmpty(fallingTetromino.getCoordinates()))
+                fallingTetromino.set(fallingTetromino.getState(), x, y);
+        }
     }
 
     public void step() {
@@ -78,11 +102,80 @@ public class GameSession {
     }
 
     private boolean ready = true;
+    // Threads waiting for a new falling tetromino (the solver) park on the monitor
+    private final Object tetrominoMonitor = new Object();
+    private boolean wokenUp = false;
+    // State of the game when the last tetromino was ready, read by the solver thread
+    private volatile GameSnapshot snapshot;
+
+    // Command slot: the agent submits the movements from its thread, the thread that steps the game executes them.
+    // A new command replaces the one not taken yet.
+    private final AtomicReference<Command> commandSlot = new AtomicReference<>();
+    private Command command;
+    private int executed;
 
     public boolean isReady() {
         return ready;
     }
 
+    public GameSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Blocks until the snapshot of a falling tetromino newer than the one number tCounter is published, the game is
+    // over, wakeUp() is called or the timeout elapses. Returns true if a new snapshot is published.
+    public boolean awaitTetromino(int tCounter, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (tetrominoMonitor) {
+            while (!wokenUp && !gameOver && snapshot.getTCounter() == tCounter) {
+                long timeout = deadline - System.currentTimeMillis();
+                if (timeout <= 0) break;
+                tetrominoMonitor.wait(timeout);
+            }
+            wokenUp = false;
+            return snapshot.getTCounter() != tCounter;
+        }
+    }
+
+    // Releases the threads waiting in awaitTetromino
+    public void wakeUp() {
+        synchronized (tetrominoMonitor) {
+            wokenUp = true;
+            tetrominoMonitor.notifyAll();
+        }
+    }
+
+    private void signalTetromino() {
+        synchronized (tetrominoMonitor) {
+            tetrominoMonitor.notifyAll();
+        }
+    }
+
+    // Called by the agent on any thread
+    public void submit(Command command) {
+        commandSlot.set(command);
+    }
+
+    // Performs at most the given number of movements of the submitted command and drops the tetromino after the last
+    // one. A command for another tetromino is discarded. Returns true when the tetromino was dropped.
+    public boolean executeCommand(int movements) {
+        Command submitted = commandSlot.getAndSet(null);
+        if (submitted != null) {
+            command = submitted;
+            executed = 0;
+        }
+        if (command == null) return false;
+        if (command.getTCounter() != tCounter || !ready || gameOver) {
+            command = null;
+            return false;
+        }
+        for (; movements > 0 && executed < command.size(); movements--) move(command.getMovement(executed++));
+        if (executed < command.size()) return false;
+        command = null;
+        updateFallingProjection();
+        return hardDrop();
+    }
+
     public void generateNewTetromino() {
         ready = false;
         tCounter++;
@@ -93,11 +186,13 @@ public class GameSession {
 
         if (level >= 30) {
             gameOver = true;
+            signalTetromino();
             return;
         }
 
         if (!gameField.areCellsEmpty(nextTetromino.getCoordinates())) {
             gameOver = true;
+            signalTetromino();
             return;
         }
 
@@ -109,16 +204,12 @@ public class GameSession {
         while (!gameField.areCellsEmpty(fallingTetromino.getCoordinates()))
             fallingTetromino.move(0, 1);
         ready = true;
+        snapshot = new GameSnapshot(this);
+        signalTetromino();
     }
 
     public void shuffleBucket() {
-        int n = 7;
-        for (int i = n - 1; i > 1; i--) {
-            int j = random.nextInt(i);
-            Tetromino.Type t = bucket[j];
-            bucket[j] = bucket[i];
-            bucket[i] = t;
-        }
+        randomizer.shuffle(bucket);
     }
 
     public void reset() {
@@ -132,14 +223,7 @@ public class GameSession {
         nextTetromino = new Tetromino(bucket[counter]);
         counter++;
 
-        for (int i = 0; i < 22; i++)
-            for (int j = 0; j < 10; j++)
-                gameField.getGameField()[i][j] = SPACE;
-
-//        for (GameField.CellType[] cells : gameField.getGameField()) {
-//            for (GameField.CellType cell : cells)
-//                cell = SPACE;
-//        };
+        gameField.clear();
         generateNewTetromino();
         updateFallingProjection();
     }
@@ -155,14 +239,7 @@ public class GameSession {
         nextTetromino = new Tetromino(bucket[counter]);
         counter++;
 
-        for (int i = 0; i < 22; i++)
-            for (int j = 0; j < 10; j++)
-                gameField.getGameField()[i][j] = SPACE;
-
-//        for (GameField.CellType[] cells : gameField.getGameField()) {
-//            for (GameField.CellType cell : cells)
-//                cell = SPACE;
-//        };
+        gameField.clear();
         generateNewTetromino();
         updateFallingProjection();
         return buildStateObservation();
@@ -228,6 +305,7 @@ public class GameSession {
     public void setLevel(int level) {
         linesCleared = (level - 1) * 10;
         this.level = level;
+        if (ready && !gameOver) snapshot = new GameSnapshot(this);
     }
 
     public int getLinesCleared() {
@@ -238,6 +316,10 @@ public class GameSession {
         return bucket;
     }
 
+    public Randomizer getRandomizer() {
+        return randomizer;
+    }
+
     public int getCounter() {
         return counter;
     }
@@ -0,0 +1,102 @@
+package org.spbstu.aleksandrov.model;
+
+import org.spbstu.aleksandrov.model.Tetromino.Type;
+
+// Immutable state of the game session when a new tetromino is ready. The session publishes a snapshot for every new
+// tetromino, the solver thread reads it instead of the live session mutated by the render thread.
+public final class GameSnapshot {
+
+    // occupancy of the field, the solver does not need the colors
+    private final int[] rows = new int[GameField.HEIGHT];
+    private final int[] columnHeights = new int[GameField.WIDTH];
+    private final long hash;
+    private final Type falling;
+    private final int state;
+    private final int x;
+    private final int y;
+    private final Type next;
+    private final Type[] bucket;
+    private final int counter;
+    private final int level;
+    private final int tCounter;
+
+    GameSnapshot(GameSession gameSession) {
+        GameField gameField = gameSession.getGameField();
+        for (int i = 0; i < GameField.HEIGHT; i++) rows[i] = gameField.getRow(i);
+        for (int j = 0; j < GameField.WIDTH; j++) columnHeights[j] = gameField.getColumnHeight(j);
+        hash = gameField.getHash();
+        Tetromino fallingTetromino = gameSession.getFallingTetromino();
+        falling = fallingTetromino.getType();
+        state = fallingTetromino.getState();
+        x = fallingTetromino.getRotationPoint().getX();
+        y = fallingTetromino.getRotationPoint().getY();
+        next = gameSession.getNextTetromino().getType();
+        bucket = gameSession.getBucket().clone();
+        counter = gameSession.getCounter();
+        level = gameSession.getLevel();
+        tCounter = gameSession.getTCounter();
+    }
+
+    // Replaces the cells of the field with the occupied cells of the snapshot, without the colors
+    public void copyTo(GameField field) {
+        field.setOccupancy(rows, columnHeights);
+    }
+
+    // New field with the occupied cells of the snapshot, without the colors
+    public GameField getGameField() {
+        GameField field = new GameField();
+        copyTo(field);
+        return field;
+    }
+
+    // Occupancy mask of the row y
+    public int getRow(int y) {
+        return rows[y];
+    }
+
+    public int getColumnHeight(int x) {
+        return columnHeights[x];
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public Type getFalling() {
+        return falling;
+    }
+
+    // State and rotation point of the falling tetromino
+    public int getState() {
+        return state;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public Type getNext() {
+        return next;
+    }
+
+    // Copy of the bucket
+    public Type[] getBucket() {
+        return bucket.clone();
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getTCounter() {
+        return tCounter;
+    }
+}
@@ -0,0 +1,191 @@
+package org.spbstu.aleksandrov.model;
+
+import org.spbstu.aleksandrov.model.Tetromino.Coordinate;
+import org.spbstu.aleksandrov.model.Tetromino.Movement;
+import org.spbstu.aleksandrov.model.Tetromino.Type;
+
+import java.util.Arrays;
+
+// Precomputed shapes and wall kicks of all the tetrominoes. A tetromino is fully described by its type, state and
+// the rotation point, the cells are stored as offsets from the rotation point.
+public final class PieceTable {
+
+    public static final int TYPES = 7;
+    public static final int STATES = 4;
+    public static final int CELLS = 4;
+    // attempt 0 is the rotation without a wall kick, attempts 1..4 are the SRS wall kicks
+    public static final int ATTEMPTS = 5;
+
+    private static final int[][] WALL_KICK_DATA = {
+            {-1, 0}, {-1, 1}, {0, -2}, {-1, -2}
+    };
+
+    private static final int[][][/*number of attempt*/] WALL_KICK_DATA_I = {
+            {{-2, 0}, {1, 0}, {-2, -1}, {1, 2}},
+            {{-1, 0}, {2, 0}, {-1, 2}, {2, -1}}
+    };
+
+    // [type][state][cell]
+    private static final int[][][] CELL_X = new int[TYPES][STATES][CELLS];
+    private static final int[][][] CELL_Y = new int[TYPES][STATES][CELLS];
+
+    // Bounding box of the cells, [type][state]
+    private static final int[][] MIN_X = new int[TYPES][STATES];
+    private static final int[][] MAX_X = new int[TYPES][STATES];
+    private static final int[][] MIN_Y = new int[TYPES][STATES];
+    private static final int[][] MAX_Y = new int[TYPES][STATES];
+
+    // [type][state][row], occupancy of the row MIN_Y + row, bit 0 is the column MIN_X
+    private static final int[][][] ROW_MASKS = new int[TYPES][STATES][];
+
+    // [type][state][column], the lowest cell offset in the column MIN_X + column
+    private static final int[][][] COLUMN_BOTTOMS = new int[TYPES][STATES][];
+
+    // [type][state], the first state with the same cells up to a translation: O has one shape, I, S and Z have two
+    private static final int[][] SHAPES = new int[TYPES][STATES];
+
+    // [type][state][rotation][attempt], rotation 0 is ROT_R, 1 is ROT_L
+    private static final int[][][][] KICK_X = new int[TYPES][STATES][2][ATTEMPTS];
+    private static final int[][][][] KICK_Y = new int[TYPES][STATES][2][ATTEMPTS];
+
+    static {
+        for (Type type : Type.values()) {
+            int t = type.ordinal();
+
+            Tetromino spawn = new Tetromino(type);
+            Coordinate rotationPoint = spawn.getRotationPoint();
+            for (int c = 0; c < CELLS; c++) {
+                CELL_X[t][0][c] = spawn.getCoordinates().get(c).getX() - rotationPoint.getX();
+                CELL_Y[t][0][c] = spawn.getCoordinates().get(c).getY() - rotationPoint.getY();
+            }
+
+            // clockwise rotation around the rotation point, I rotates around the center of its bounding box
+            for (int s = 1; s < STATES; s++) {
+                for (int c = 0; c < CELLS; c++) {
+                    int x = CELL_X[t][s - 1][c];
+                    int y = CELL_Y[t][s - 1][c];
+                    if (type == Type.O) {
+                        CELL_X[t][s][c] = x;
+                        CELL_Y[t][s][c] = y;
+                    } else if (type == Type.I) {
+                        CELL_X[t][s][c] = y + 1;
+                        CELL_Y[t][s][c] = -x;
+                    } else {
+                        CELL_X[t][s][c] = y;
+                        CELL_Y[t][s][c] = -x;
+                    }
+                }
+            }
+
+            for (int s = 0; s < STATES; s++) {
+                MIN_X[t][s] = MIN_Y[t][s] = Integer.MAX_VALUE;
+                MAX_X[t][s] = MAX_Y[t][s] = Integer.MIN_VALUE;
+                for (int c = 0; c < CELLS; c++) {
+                    MIN_X[t][s] = Math.min(MIN_X[t][s], CELL_X[t][s][c]);
+                    MAX_X[t][s] = Math.max(MAX_X[t][s], CELL_X[t][s][c]);
+                    MIN_Y[t][s] = Math.min(MIN_Y[t][s], CELL_Y[t][s][c]);
+                    MAX_Y[t][s] = Math.max(MAX_Y[t][s], CELL_Y[t][s][c]);
+                }
+                ROW_MASKS[t][s] = new int[MAX_Y[t][s] - MIN_Y[t][s] + 1];
+                for (int c = 0; c < CELLS; c++)
+                    ROW_MASKS[t][s][CELL_Y[t][s][c] - MIN_Y[t][s]] |= 1 << (CELL_X[t][s][c] - MIN_X[t][s]);
+
+                SHAPES[t][s] = s;
+                for (int o = s - 1; o >= 0; o--)
+                    if (Arrays.equals(ROW_MASKS[t][o], ROW_MASKS[t][s])) SHAPES[t][s] = o;
+
+                COLUMN_BOTTOMS[t][s] = new int[MAX_X[t][s] - MIN_X[t][s] + 1];
+                Arrays.fill(COLUMN_BOTTOMS[t][s], Integer.MAX_VALUE);
+                for (int c = 0; c < CELLS; c++) {
+                    int column = CELL_X[t][s][c] - MIN_X[t][s];
+                    COLUMN_BOTTOMS[t][s][column] = Math.min(COLUMN_BOTTOMS[t][s][column], CELL_Y[t][s][c]);
+                }
+
+                for (int r = 0; r < 2; r++) {
+                    boolean left = r == 1;
+                    for (int a = 1; a < ATTEMPTS; a++) {
+                        int x;
+                        int y;
+                        if (type != Type.I) {
+                            x = WALL_KICK_DATA[a - 1][0];
+                            y = WALL_KICK_DATA[a - 1][1];
+                            if (s % 2 == 1) {
+                                x = -x;
+                                y = -y;
+                            }
+                            if (s / 2 == 1) x = -x;
+                            if (left && s % 2 == 0) x = -x;
+                        } else {
+                            int index = left ? (s + 1) % 2 : s % 2;
+                            x = WALL_KICK_DATA_I[index][a - 1][0];
+                            y = WALL_KICK_DATA_I[index][a - 1][1];
+                            if ((s > 1 && !left) || (s > 0 && s < 3 && left)) {
+                                x = -x;
+                                y = -y;
+                            }
+                        }
+                        KICK_X[t][s][r][a] = x;
+                        KICK_Y[t][s][r][a] = y;
+                    }
+                }
+            }
+        }
+    }
+
+    private PieceTable() {}
+
+    public static int rotation(Movement direction) {
+        return direction == Movement.ROT_L ? 1 : 0;
+    }
+
+    public static int rotatedState(int state, Movement direction) {
+        return direction == Movement.ROT_L ? (state + 3) % 4 : (state + 1) % 4;
+    }
+
+    public static int cellX(Type type, int state, int cell) {
+        return CELL_X[type.ordinal()][state][cell];
+    }
+
+    public static int cellY(Type type, int state, int cell) {
+        return CELL_Y[type.ordinal()][state][cell];
+    }
+
+    public static int minX(Type type, int state) {
+        return MIN_X[type.ordinal()][state];
+    }
+
+    public static int maxX(Type type, int state) {
+        return MAX_X[type.ordinal()][state];
+    }
+
+    public static int minY(Type type, int state) {
+        return MIN_Y[type.ordinal()][state];
+    }
+
+    public static int maxY(Type type, int state) {
+        return MAX_Y[type.ordinal()][state];
+    }
+
+    // The states of the same shape cover the same cells when their bounding boxes are at the same place
+    public static int shape(Type type, int state) {
+        return SHAPES[type.ordinal()][state];
+    }
+
+    // Do not modify the returned array
+    public static int[] rowMasks(Type type, int state) {
+        return ROW_MASKS[type.ordinal()][state];
+    }
+
+    // Do not modify the returned array
+    public static int[] columnBottoms(Type type, int state) {
+        return COLUMN_BOTTOMS[type.ordinal()][state];
+    }
+
+    public static int kickX(Type type, int state, Movement direction, int attempt) {
+        return KICK_X[type.ordinal()][state][rotation(direction)][attempt];
+    }
+
+    public static int kickY(Type type, int state, Movement direction, int attempt) {
+        return KICK_Y[type.ordinal()][state][rotation(direction)][attempt];
+    }
+}
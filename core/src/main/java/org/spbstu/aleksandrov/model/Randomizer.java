@@ -0,0 +1,7 @@
+package org.spbstu.aleksandrov.model;
+
+// Orders the tetrominoes of the next bucket, the GameSession calls it every 7 tetrominoes
+public interface Randomizer {
+
+    void shuffle(Tetromino.Type[] bucket);
+}
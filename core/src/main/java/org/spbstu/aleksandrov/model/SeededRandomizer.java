@@ -0,0 +1,29 @@
+package org.spbstu.aleksandrov.model;
+
+import java.util.SplittableRandom;
+
+// Uniform 7-bag randomizer, the same seed gives the same sequence of tetrominoes on every run and platform
+public class SeededRandomizer implements Randomizer {
+
+    private final long seed;
+    private final SplittableRandom random;
+
+    public SeededRandomizer(long seed) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public void shuffle(Tetromino.Type[] bucket) {
+        for (int i = bucket.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Tetromino.Type t = bucket[j];
+            bucket[j] = bucket[i];
+            bucket[i] = t;
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -88,42 +88,19 @@ public class Tetromino implements Cloneable {
     }
 
     public void rotate(Movement move) {
+        if (move == Movement.ROT_L || move == Movement.ROT_R) set(PieceTable.rotatedState(state, move),
+                rotationPoint.x, rotationPoint.y);
+    }
 
-        int direction = 0;
-        if (move == Movement.ROT_L) direction = 1;
-        else if (move == Movement.ROT_R) direction = -1;
-
-        // direction = 1 is rotation on left (3 -> 2; 2 -> 1; 1 -> 0; 0 -> 3)
-        // direction = -1 is rotation on right (0 -> 1; 1 -> 2; 2 -> 3; 3 -> 0)
-        state = (state + (4 - direction) % 4) % 4;
-
-        if (this.type == Type.O) return;
-
-        double rotX;
-        double rotY;
-
-        if (this.type == I) {
-            rotX = rotationPoint.x + 0.5;
-            rotY = rotationPoint.y - 0.5;
-        } else {
-            rotX = rotationPoint.x;
-            rotY = rotationPoint.y;
-        }
-
-        for (Coordinate coordinate : coordinates) {
-
-            int oldX = coordinate.x;
-            int oldY = coordinate.y;
-
-            // rotate (x, y) around (x0, y0) by angle a = 90 * direction
-            // x' = x0 + (x - x0)cos(a) - (y - y0)sin(a)
-            // y' = y0 + (x - x0)sin(a) - (y - y0)cos(a)
-            // cos(90) = cos(-90) = 0;
-            // sin(90) = 1
-            // sin(-90) = 1
-
-            coordinate.x = (int) ((rotY - oldY) * direction + rotX);
-            coordinate.y = (int) ((oldX - rotX) * direction + rotY);
+    // Places the tetromino in the state with the rotation point at (x, y), the cells are taken from the PieceTable
+    public void set(int state, int x, int y) {
+        this.state = state;
+        rotationPoint.x = x;
+        rotationPoint.y = y;
+        for (int i = 0; i < PieceTable.CELLS; i++) {
+            Coordinate coordinate = coordinates.get(i);
+            coordinate.x = x + PieceTable.cellX(type, state, i);
+            coordinate.y = y + PieceTable.cellY(type, state, i);
         }
     }
 
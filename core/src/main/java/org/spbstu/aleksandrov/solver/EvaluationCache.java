@@ -0,0 +1,82 @@
+package org.spbstu.aleksandrov.solver;
+
+import java.util.Arrays;
+
+// Bounded cache of the field grades of the EvaluationCounter without the removed lines and the lock heights, keyed by
+// the hash of the field. A key is looked for in a window of four entries after its index. A new key takes an empty
+// entry of the window, otherwise the clock runs over the window: an entry found since the last pass gets a second
+// chance, the first one not found is replaced.
+public class EvaluationCache {
+
+    private static final int WINDOW = 4;
+    private static final byte EMPTY = 0;
+    private static final byte STORED = 1;
+    private static final byte REFERENCED = 2;
+
+    private final int mask;
+    private final long[] keys;
+    private final double[] grades;
+    private final byte[] marks;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // size is rounded up to a power of two
+    public EvaluationCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(WINDOW, size - 1)) << 1;
+        mask = capacity - 1;
+        keys = new long[capacity + WINDOW - 1];
+        grades = new double[capacity + WINDOW - 1];
+        marks = new byte[capacity + WINDOW - 1];
+    }
+
+    // Returns the index of the entry with the key or -1
+    public int find(long key) {
+        int index = (int) (key ^ (key >>> 32)) & mask;
+        for (int i = index; i < index + WINDOW; i++) {
+            if (marks[i] != EMPTY && keys[i] == key) {
+                marks[i] = REFERENCED;
+                hits++;
+                return i;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    public void store(long key, double grade) {
+        int index = (int) (key ^ (key >>> 32)) & mask;
+        int entry = -1;
+        for (int i = index; i < index + WINDOW && entry < 0; i++) {
+            if (marks[i] == EMPTY || keys[i] == key) entry = i;
+        }
+        for (int pass = 0; pass < 2 && entry < 0; pass++) {
+            for (int i = index; i < index + WINDOW; i++) {
+                if (marks[i] == STORED) {
+                    entry = i;
+                    break;
+                }
+                marks[i] = STORED;
+            }
+        }
+        keys[entry] = key;
+        grades[entry] = grade;
+        marks[entry] = STORED;
+    }
+
+    public double getGrade(int entry) {
+        return grades[entry];
+    }
+
+    public void clear() {
+        Arrays.fill(marks, EMPTY);
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
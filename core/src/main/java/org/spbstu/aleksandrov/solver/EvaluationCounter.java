@@ -2,17 +2,25 @@ package org.spbstu.aleksandrov.solver;
 
 import org.spbstu.aleksandrov.Tetris;
 import org.spbstu.aleksandrov.model.GameField;
+import org.spbstu.aleksandrov.model.PieceTable;
 import org.spbstu.aleksandrov.model.Tetromino;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Properties;
 
 import static java.lang.Math.abs;
-import static org.spbstu.aleksandrov.model.GameField.CellType.SPACE;
 
-public class EvaluationCounter {
+public class EvaluationCounter implements Evaluator {
 
-    // Коэффициенты весовой функции.
-    private static final double[] p = {
+    // Количество коэффициентов весовой функции.
+    public static final int WEIGHTS = 17;
+
+    // Коэффициенты весовой функции по умолчанию.
+    private static final double[] DEFAULT_WEIGHTS = {
             0.286127095297893900, 1.701233676909959200, 0.711304230768307700, 0.910665415998680400,
             1.879338064244357000, 2.168463848297177000, -0.265587111961757270, 0.289886584949610500,
             0.362361055261181730, -0.028668795795469625, 0.874179981113233100, -0.507409683144361900,
@@ -20,17 +28,86 @@ public class EvaluationCounter {
             0.287838126164431440
     };
 
-    public static double evaluate(int removedLines, GameField gameField, Tetromino[] solutions) {
-
-        double result = removedLines * p[0] +
-                countLockHeight(solutions) +
-                countWells(gameField.getGameField()) +
-                countHoles(gameField.getGameField()) +
-                countColumnTransitions(gameField.getGameField()) +
-                countRowTransitions(gameField.getGameField()) +
-                countColumnHeights(gameField.getGameField()) +
-                countSolidCells(gameField.getGameField());
-        if (Tetris.SURVIVAL) {
+    // Коэффициенты весовой функции.
+    private final double[] p;
+    // Режим выживания: удалённые линии поощряются одинаково, иначе поощряется тетрис.
+    private final boolean survival;
+
+    public EvaluationCounter() {
+        this(DEFAULT_WEIGHTS, Tetris.SURVIVAL);
+    }
+
+    public EvaluationCounter(double[] weights, boolean survival) {
+        if (weights.length != WEIGHTS)
+            throw new IllegalArgumentException("weights must have " + WEIGHTS + " values: " + weights.length);
+        for (double weight : weights) {
+            if (!Double.isFinite(weight)) throw new IllegalArgumentException("weight must be finite: " + weight);
+        }
+        this.p = weights.clone();
+        this.survival = survival;
+    }
+
+    // Коэффициенты из файла свойств: weights – 17 коэффициентов через запятую, survival – режим выживания
+    // (по умолчанию Tetris.SURVIVAL).
+    public static EvaluationCounter load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+        String weights = properties.getProperty("weights");
+        if (weights == null) throw new IllegalArgumentException("No weights in " + path);
+        String[] values = weights.split(",");
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = Double.parseDouble(values[i].trim());
+        boolean survival = Boolean.parseBoolean(properties.getProperty("survival", String.valueOf(Tetris.SURVIVAL)));
+        return new EvaluationCounter(result, survival);
+    }
+
+    public double[] getWeights() {
+        return p.clone();
+    }
+
+    public boolean isSurvival() {
+        return survival;
+    }
+
+    public double evaluate(int removedLines, GameField gameField, Tetromino[] solutions) {
+        return evaluate(removedLines, gameField, countLockHeight(solutions));
+    }
+
+    // Оценка поля, когда общая высота блокировки уже посчитана.
+    public double evaluate(int removedLines, GameField gameField, double lockHeight) {
+        return evaluate(removedLines, gameField, lockHeight, new Features());
+    }
+
+    // Оценка поля с переиспользуемым вектором признаков, features заполняется признаками поля.
+    public double evaluate(int removedLines, GameField gameField, double lockHeight, Features features) {
+        return evaluate(removedLines, lockHeight, features.extract(gameField));
+    }
+
+    // Оценка поля по уже посчитанным признакам.
+    public double evaluate(int removedLines, double lockHeight, Features f) {
+        return evaluate(removedLines, lockHeight, evaluateCells(f));
+    }
+
+    // Оценка занятых ячеек поля – часть оценки без удалённых линий и высоты блокировки. Зависит только от занятых
+    // ячеек, поэтому может быть сохранена по хешу поля.
+    @Override
+    public double evaluateCells(Features f) {
+        return (f.wellCells * p[2] + f.deepWells * p[3]) +
+                (f.holes * p[4] + f.holeWeight * p[5] + f.holeDepth * p[6] + f.minHoleDepth * p[7] +
+                        f.maxHoleDepth * p[8]) +
+                f.columnTransitions * p[9] +
+                f.rowTransitions * p[10] +
+                (f.totalHeight * p[11] + f.spread * p[13] + f.maxHeight * p[12] + f.dispersion * p[16]) +
+                (f.solidCells * p[14] + f.solidWeight * p[15]);
+    }
+
+    // Оценка поля по оценке занятых ячеек cells.
+    @Override
+    public double evaluate(int removedLines, double lockHeight, double cells) {
+        double result = removedLines * p[0] + lockHeight + cells;
+        if (survival) {
             if (removedLines > 0) result -= 1.0E2 * removedLines;
         } else {
             if (removedLines == 4) result -= 1.0E9;
@@ -41,194 +118,362 @@ public class EvaluationCounter {
     // Общая высота блокировки – сумма высот над полом игрового поля, где заблокировано тетромино.
     // Высота блокировки отдельной фигуры — это вертикальное расстояние, на которое она может упасть при
     // сохранении ориентации, если удалить все занятые квадраты игрового поля.
-    private static double countLockHeight(Tetromino[] solutions) {
-        int[] lockHeights = new int[solutions.length];
-        Arrays.fill(lockHeights, 22);
-        int i = 0;
-        for (Tetromino solution : solutions) {
-            if (solution != null) {
-                for (Tetromino.Coordinate coordinate : solution.getCoordinates()) {
-                    int y = coordinate.getY();
-                    if (y < lockHeights[i]) lockHeights[i] = y;
-                }
-            }
-            i++;
-        }
+    private double countLockHeight(Tetromino[] solutions) {
         double result = 0;
-        for (int lockHeight : lockHeights) result += lockHeight * p[1];
+        for (Tetromino solution : solutions) result += countLockHeight(solution);
         return result;
     }
 
-    // Общее количество ячеек-колодцев – количество ячеек внутри колодцев.
-    // Ячейка-колодец — это пустая ячейка, расположенная над всеми занятыми ячейками в столбце так, что её левый
-    // и правый сосед являются занятыми ячейками; при определении колодцев стенки игрового поля считаются занятыми
-    // ячейками.
-    // Общее количество глубоких колодцев – количество колодцев, содержащих три или более ячеек-колодцев.
-    private static double countWells(GameField.CellType[][] gameField) {
-        int wellCells = 0; // Общее количество ячеек-колодцев
-        int deepWells = 0; // Общее количество глубоких колодцев
-        columns:
-        for (int j = 0; j < 10; j++) {
-            // rows:
-            for (int i = 21; i >= 0; i--) { // index fix, vrode done
-
-                if (gameField[i][j] != SPACE) continue columns;
-
-                if (isWell(i, j, gameField)) {
-                    wellCells++;
-                    int deep = 1;
-                    int k = i - 1;
-                    while (k >= 0 && isWell(k, j, gameField)) {
-                        wellCells++;
-                        deep++;
-                        k--;
-                    }
-                    if (deep >= 3) deepWells++;
-                    continue columns;
-                }
+    // Высота блокировки одной фигуры, умноженная на коэффициент; отсутствующая фигура имеет высоту поля.
+    public double countLockHeight(Tetromino solution) {
+        int lockHeight = 22;
+        if (solution != null) {
+            for (Tetromino.Coordinate coordinate : solution.getCoordinates()) {
+                int y = coordinate.getY();
+                if (y < lockHeight) lockHeight = y;
             }
         }
-        return wellCells * p[2] + deepWells * p[3];
+        return countLockHeight(lockHeight);
     }
 
-    private static boolean isWell(int i, int j, GameField.CellType[][] gameField) {
-        boolean isWell;
-        if (gameField[i][j] != SPACE) return false;
-        if (j == 0) {
-            isWell = gameField[i][j + 1] != SPACE;
-        } else if (j == 9) {
-            isWell = gameField[i][j - 1] != SPACE;
-        } else {
-            isWell = gameField[i][j - 1] != SPACE && gameField[i][j + 1] != SPACE;
-        }
-        return isWell;
+    // Высота блокировки, заданная нижней строкой фигуры, умноженная на коэффициент.
+    @Override
+    public double countLockHeight(int lockHeight) {
+        return lockHeight * p[1];
     }
 
-    // Общее количество отверстий в столбцах – количество пустых ячеек, непосредственно над которыми есть
-    // занятые ячейки. Пол игрового поля не сравнивается с ячейкой над ним. Пустые столбцы не содержат отверстий.
-    //
-    // Общее взвешенное количество отверстий в столбцах – сумма индексов строк отверстий в столбцах.
-    // В этом случае строки индексируются сверху вниз, начиная с 1.
-    // Идея в том, чтобы расположенным ниже в куче отверстиям давать больший штраф, потому что для заполнения
-    // верхних отверстий требуется очистить меньшее количество строк.
-    //
-    // Общее количество глубин отверстий в столбцах – сумма вертикальных расстояний между каждым отверстием
-    // и вершиной столбца, в котором оно находится. Вершина — это самая верхняя занятая ячейка в пределах столбца,
-    // а глубина отверстия — это разность между индексом строки отверстия и индексом строки вершины.
-    //
-    // Минимальная глубина отверстий в столбцах – наименьшая глубина отверстий в столбцах.
-    // Если отверстий нет, то по умолчанию параметр имеет значение высоты поля (20).
-    //
-    // Максимальная глубина отверстий в столбцах – наибольшая глубина отверстий в столбцах.
-    // Если отверстий нет, то значение по умолчанию равно 0.
-    private static double countHoles(GameField.CellType[][] gameField) {
-        int holes = 0; // Общее количество отверстий в столбцах
-        int weigth = 0; // Общее взвешенное количество отверстий в столбцах
-        int totalDepth = 0; // Общее количество глубин отверстий в столбцах
-        int minHoleDepth = 22; // Минимальная глубина отверстий в столбцах
-        int maxHoleDepth = 0; // Максимальная глубина отверстий в столбцах
-        for (int j = 0; j < 10; j++) {
-            for (int i = 21; i >= 1; i--) {
-                if (gameField[i - 1][j] == SPACE && gameField[i][j] != SPACE) {
-                    holes++;
-                    weigth += 22 - (i - 1);
-                    int k = i - 2;
-                    int depth = 1;
-                    while (k >= 0 && gameField[k][j] == SPACE) {
-                        weigth += 22 - k;
-                        depth++;
-                        k--;
-                    }
-                    totalDepth += depth;
-                    if (depth < minHoleDepth) minHoleDepth = depth;
-                    if (depth > maxHoleDepth) maxHoleDepth = depth;
-                }
-            }
+    // Признаки поля, кроме удалённых линий и высоты блокировки. Считаются за один проход по битовым маскам строк и
+    // один проход по столбцам, либо обновляются из признаков родительского поля после установки фигуры: тогда
+    // пересчитываются только строки фигуры и затронутые столбцы. Экземпляр переиспользуется между оценками одним
+    // потоком.
+    public static final class Features {
+
+        private static final int FULL_ROW = GameField.FULL_ROW;
+        private static final int FIRST_COLUMN = 1;
+        private static final int LAST_COLUMN = 1 << (GameField.WIDTH - 1);
+        // биты столбцов 1..8: сравнение ячейки со следующей справа
+        private static final int INNER_PAIRS = FULL_ROW & ~FIRST_COLUMN & ~LAST_COLUMN;
+
+        // Общее количество ячеек-колодцев – количество ячеек внутри колодцев.
+        // Ячейка-колодец — это пустая ячейка, расположенная над всеми занятыми ячейками в столбце так, что её левый
+        // и правый сосед являются занятыми ячейками; при определении колодцев стенки игрового поля считаются
+        // занятыми ячейками.
+        // Общее количество глубоких колодцев – количество колодцев, содержащих три или более ячеек-колодцев.
+        // Учитывается только верхний колодец столбца.
+        int wellCells;
+        int deepWells;
+
+        // Общее количество отверстий в столбцах – количество пустых ячеек, непосредственно над которыми есть
+        // занятые ячейки. Пол игрового поля не сравнивается с ячейкой над ним. Пустые столбцы не содержат
+        // отверстий.
+        //
+        // Общее взвешенное количество отверстий в столбцах – сумма индексов строк отверстий в столбцах.
+        // В этом случае строки индексируются сверху вниз, начиная с 1.
+        // Идея в том, чтобы расположенным ниже в куче отверстиям давать больший штраф, потому что для заполнения
+        // верхних отверстий требуется очистить меньшее количество строк.
+        //
+        // Глубина отверстия – количество пустых ячеек подряд, начиная с отверстия вниз. Общее количество глубин
+        // отверстий в столбцах – сумма глубин всех отверстий.
+        //
+        // Минимальная глубина отверстий в столбцах – наименьшая глубина отверстий в столбцах.
+        // Если отверстий нет, то по умолчанию параметр имеет значение высоты поля (22).
+        //
+        // Максимальная глубина отверстий в столбцах – наибольшая глубина отверстий в столбцах.
+        // Если отверстий нет, то значение по умолчанию равно 0.
+        int holes;
+        int holeWeight;
+        int holeDepth;
+        int minHoleDepth;
+        int maxHoleDepth;
+
+        // Общее количество переходов в столбцах – количество пустых ячеек, соседних с занятой ячейкой (или наоборот)
+        // в пределах одного столбца.
+        int columnTransitions;
+
+        // Общее количество переходов в строках: переход в строках — это пустая ячейка, соседствующая с занятой
+        // ячейкой (или наоборот) в пределах одного ряда. Пустые ячейки у стенок игрового поля считаются
+        // переходами, первая и вторая ячейки ряда между собой не сравниваются. Совершенно пустые строки не
+        // учитываются в общем количестве переходов.
+        int rowTransitions;
+
+        // Общее количество высот столбцов – сумма вертикальных расстояний между вершиной каждого столбца и полом
+        // игрового поля. Столбец, содержащий всего 1 занятую ячейку, имеет высоту 1, а полностью пустой столбец —
+        // высоту 0.
+        //
+        // Высота кучи – высота наибольшего столбца.
+        //
+        // Разброс высот столбцов – разность высот между самым высоким и самым низким непустыми столбцами.
+        //
+        // Дисперсия высот столбцов – сумма абсолютных по модулю разностей между высотами всех соседних столбцов,
+        // пустой столбец сохраняет высоту предыдущего столбца.
+        int totalHeight;
+        int maxHeight;
+        int spread;
+        int dispersion;
+
+        // Общее количество занятых ячеек – количество занятых ячеек на игровом поле.
+        // Общее взвешенное количество занятых ячеек – сумма высот всех занятых ячеек. Строка над полом имеет
+        // высоту 1.
+        int solidCells;
+        int solidWeight;
+
+        // Признаки для чтения из реализаций Evaluator вне пакета.
+        public int getWellCells() {
+            return wellCells;
+        }
+
+        public int getDeepWells() {
+            return deepWells;
+        }
+
+        public int getHoles() {
+            return holes;
+        }
+
+        public int getHoleWeight() {
+            return holeWeight;
         }
-        return holes * p[4] + weigth * p[5] + totalDepth * p[6] + minHoleDepth * p[7] + maxHoleDepth * p[8];
-    }
 
-    // Общее количество переходов в столбцах – количество пустых ячеек, соседних с занятой ячейкой (или наоборот)
-    // в пределах одного столбца.
-    private static double countColumnTransitions(GameField.CellType[][] gameField) {
-        int result = 0;
-        for (int j = 0; j < 10; j++) {
-            for (int i = 0; i < 21; i++) {
-                if (gameField[i][j] == SPACE ^ gameField[i + 1][j] == SPACE) result++;
+        public int getHoleDepth() {
+            return holeDepth;
+        }
+
+        public int getMinHoleDepth() {
+            return minHoleDepth;
+        }
+
+        public int getMaxHoleDepth() {
+            return maxHoleDepth;
+        }
+
+        public int getColumnTransitions() {
+            return columnTransitions;
+        }
+
+        public int getRowTransitions() {
+            return rowTransitions;
+        }
+
+        public int getTotalHeight() {
+            return totalHeight;
+        }
+
+        public int getMaxHeight() {
+            return maxHeight;
+        }
+
+        public int getSpread() {
+            return spread;
+        }
+
+        public int getDispersion() {
+            return dispersion;
+        }
+
+        public int getSolidCells() {
+            return solidCells;
+        }
+
+        public int getSolidWeight() {
+            return solidWeight;
+        }
+
+        // Состояние для обновления: битовые маски строк, битовые маски столбцов (бит i – строка i) занятых ячеек и
+        // ячеек с занятыми соседями и вклад каждого столбца в колодцы и отверстия. Хранится одним массивом, чтобы
+        // признаки родителя копировались одним вызовом.
+        private static final int ROWS = 0;
+        private static final int COLUMNS = ROWS + GameField.HEIGHT;
+        private static final int WELLS = COLUMNS + GameField.WIDTH;
+        private static final int WELL_CELLS = WELLS + GameField.WIDTH;
+        private static final int HOLES = WELL_CELLS + GameField.WIDTH;
+        private static final int HOLE_WEIGHT = HOLES + GameField.WIDTH;
+        private static final int HOLE_DEPTH = HOLE_WEIGHT + GameField.WIDTH;
+        private static final int MIN_HOLE_DEPTH = HOLE_DEPTH + GameField.WIDTH;
+        private static final int MAX_HOLE_DEPTH = MIN_HOLE_DEPTH + GameField.WIDTH;
+        private static final int SIZE = MAX_HOLE_DEPTH + GameField.WIDTH;
+        private final int[] state = new int[SIZE];
+
+        Features extract(GameField field) {
+            columnTransitions = 0;
+            rowTransitions = 0;
+            solidCells = 0;
+            solidWeight = 0;
+            Arrays.fill(state, COLUMNS, WELL_CELLS, 0);
+
+            // проход по строкам
+            for (int i = 0; i < GameField.HEIGHT; i++) {
+                int row = field.getRow(i);
+                state[ROWS + i] = row;
+                int cells = Integer.bitCount(row);
+                solidCells += cells;
+                solidWeight += cells * (i + 1);
+                rowTransitions += countRowTransitions(row);
+                if (i + 1 < GameField.HEIGHT) columnTransitions += Integer.bitCount(row ^ field.getRow(i + 1));
+                if (row == 0) continue;
+
+                for (int bits = row; bits != 0; bits &= bits - 1)
+                    state[COLUMNS + Integer.numberOfTrailingZeros(bits)] |= 1 << i;
+                for (int bits = well(row); bits != 0; bits &= bits - 1)
+                    state[WELLS + Integer.numberOfTrailingZeros(bits)] |= 1 << i;
+            }
+
+            // проход по столбцам
+            wellCells = 0;
+            deepWells = 0;
+            holes = 0;
+            holeWeight = 0;
+            holeDepth = 0;
+            for (int j = 0; j < GameField.WIDTH; j++) {
+                countColumn(j, field.getColumnHeight(j));
+                addColumn(j, 1);
             }
+            summarize(field);
+            return this;
         }
-        return result * p[9];
-    }
 
-    //Общее количество переходов в строках: переход в строках — это пустая ячейка, соседствующая с занятой ячейкой
-    // (или наоборот) в пределах одного ряда. Пустые ячейки рядом со стенками игрового поля считаются переходами.
-    // Общее количество высчитывается для всех строк игрового поля.
-    // Однако совершенно пустые строки не учитываются в общем количестве переходов.
-    private static double countRowTransitions(GameField.CellType[][] gameField) {
-        int result = 0;
-        for (int i = 0; i < 22; i++) {
-            boolean lineIsEmpty = true;
-            for (int j = 0; j < 10; j++) {
-                if (gameField[i][j] != SPACE) lineIsEmpty = false;
-                if (j == 0) {
-                    if (gameField[i][j] == SPACE) result++;
-                } else if (j == 9) {
-                    if (gameField[i][j] == SPACE) result++;
-                } else if (gameField[i][j] == SPACE ^ gameField[i][j + 1] == SPACE) result++;
+        // Признаки поля field, полученного из поля с признаками parent установкой фигуры type в позицию placement,
+        // clearedLines – удалённые этой фигурой линии. Пересчитываются строки фигуры и столбцы, в которых изменились
+        // ячейки или колодцы. Удалённые линии сдвигают строки, тогда поле считается заново.
+        Features update(Features parent, GameField field, Tetromino.Type type, int placement, int clearedLines) {
+            if (clearedLines > 0) return extract(field);
+            if (parent != this) copy(parent);
+
+            int shape = PlacementFinder.state(placement);
+            int bottom = PlacementFinder.y(placement) + PieceTable.minY(type, shape);
+            int top = PlacementFinder.y(placement) + PieceTable.maxY(type, shape);
+            // пары строк, переходы между которыми могли измениться
+            int first = Math.max(bottom - 1, 0);
+            int last = Math.min(top, GameField.HEIGHT - 2);
+            for (int i = first; i <= last; i++) columnTransitions -= Integer.bitCount(state[ROWS + i] ^ state[ROWS + i + 1]);
+
+            // строки фигуры
+            int touched = 0;
+            for (int i = bottom; i <= top; i++) {
+                int before = state[ROWS + i];
+                int row = field.getRow(i);
+                int placed = row ^ before;
+                state[ROWS + i] = row;
+                int cells = Integer.bitCount(placed);
+                solidCells += cells;
+                solidWeight += cells * (i + 1);
+                rowTransitions += countRowTransitions(row) - countRowTransitions(before);
+
+                for (int bits = placed; bits != 0; bits &= bits - 1)
+                    state[COLUMNS + Integer.numberOfTrailingZeros(bits)] |= 1 << i;
+                int well = well(row) ^ well(before);
+                for (int bits = well; bits != 0; bits &= bits - 1)
+                    state[WELLS + Integer.numberOfTrailingZeros(bits)] ^= 1 << i;
+                touched |= placed | well;
+            }
+            for (int i = first; i <= last; i++) columnTransitions += Integer.bitCount(state[ROWS + i] ^ state[ROWS + i + 1]);
+
+            // затронутые столбцы
+            for (int bits = touched; bits != 0; bits &= bits - 1) {
+                int j = Integer.numberOfTrailingZeros(bits);
+                addColumn(j, -1);
+                countColumn(j, field.getColumnHeight(j));
+                addColumn(j, 1);
             }
-            if (lineIsEmpty) result -= 2;
+            summarize(field);
+            return this;
         }
-        return result * p[10];
-    }
 
-    // Общее количество высот столбцов – сумма вертикальных расстояний между вершиной каждого столбца и полом игрового
-    // поля. Столбец, содержащий всего 1 занятую ячейку, имеет высоту 1, а полностью пустой столбец — высоту 0.
-    //
-    // Высота кучи – высота наибольшего столбца.
-    //
-    // Разброс высот столбцов – разность высот между самым высоким и самым низким столбцами.
-    //
-    // Дисперсия высот столбцов – сумма абсолютных по модулю разностей между высотами всех соседних столбцов.
-    private static double countColumnHeights(GameField.CellType[][] gameField) {
-        int totalHeight = 0; // Общее количество высот столбцов p[11]
-        int maxHeight = 0; // Высота кучи
-        int minHeight = 22;
-        int height = 0;
-        int lastHeight;
-        int dispersion = 0; // Дисперсия высот столбцов
-        int spread; // Разброс высот столбцов
-        for (int j = 0; j < 10; j++) {
-            int i = 21;
-            lastHeight = height;
-            while (i >= 0) {
-                if (gameField[i][j] != SPACE) {
-                    totalHeight += i + 1;
-                    height = i + 1;
-                    if (i + 1 > maxHeight) maxHeight = i + 1;
-                    if (i + 1 < minHeight) minHeight = i + 1;
-                    break;
-                }
-                i--;
+        private void copy(Features parent) {
+            columnTransitions = parent.columnTransitions;
+            rowTransitions = parent.rowTransitions;
+            solidCells = parent.solidCells;
+            solidWeight = parent.solidWeight;
+            wellCells = parent.wellCells;
+            deepWells = parent.deepWells;
+            holes = parent.holes;
+            holeWeight = parent.holeWeight;
+            holeDepth = parent.holeDepth;
+            System.arraycopy(parent.state, 0, state, 0, SIZE);
+        }
+
+        private static int countRowTransitions(int row) {
+            if (row == 0) return 0;
+            int result = Integer.bitCount((row ^ row >>> 1) & INNER_PAIRS);
+            if ((row & FIRST_COLUMN) == 0) result++;
+            if ((row & LAST_COLUMN) == 0) result++;
+            return result;
+        }
+
+        // пустые ячейки строки с занятыми соседями слева и справа
+        private static int well(int row) {
+            return ~row & (row << 1 | FIRST_COLUMN) & (row >>> 1 | LAST_COLUMN) & FULL_ROW;
+        }
+
+        // вклад столбца j в колодцы и отверстия
+        private void countColumn(int j, int columnHeight) {
+            int below = (1 << columnHeight) - 1;
+
+            // верхний колодец столбца: ячейки-колодцы подряд вниз от самой верхней
+            int well = state[WELLS + j] & ~below;
+            int deep = 0;
+            if (well != 0) {
+                int top = 31 - Integer.numberOfLeadingZeros(well);
+                int rest = ~well & ((1 << top) - 1);
+                deep = rest == 0 ? top + 1 : top - (31 - Integer.numberOfLeadingZeros(rest));
             }
-            if (j != 0) dispersion += abs(height - lastHeight);
+            state[WELL_CELLS + j] = deep;
+
+            // отверстия: серии пустых ячеек ниже вершины столбца
+            int empty = ~state[COLUMNS + j] & below;
+            int count = 0;
+            int weight = 0;
+            int minDepth = GameField.HEIGHT;
+            int maxDepth = 0;
+            state[HOLE_DEPTH + j] = Integer.bitCount(empty);
+            while (empty != 0) {
+                int bottom = Integer.numberOfTrailingZeros(empty);
+                int depth = Integer.numberOfTrailingZeros(~(empty >>> bottom));
+                count++;
+                // сумма 22 - k по строкам k серии
+                weight += depth * GameField.HEIGHT - (2 * bottom + depth - 1) * depth / 2;
+                if (depth < minDepth) minDepth = depth;
+                if (depth > maxDepth) maxDepth = depth;
+                empty &= ~(((1 << depth) - 1) << bottom);
+            }
+            state[HOLES + j] = count;
+            state[HOLE_WEIGHT + j] = weight;
+            state[MIN_HOLE_DEPTH + j] = minDepth;
+            state[MAX_HOLE_DEPTH + j] = maxDepth;
         }
-        spread = maxHeight - minHeight;
-        return totalHeight * p[11] + spread * p[13] + maxHeight * p[12] + dispersion * p[16];
-    }
 
-    // Общее количество занятых ячеек – количество занятых ячеек на игровом поле.
-    // Общее взвешенное количество занятых ячеек – сумма высот всех занятых ячеек. Строка над полом имеет высоту.
-    private static double countSolidCells(GameField.CellType[][] gameField) {
-        int counter = 0; // Общее количество занятых ячеек
-        int weight = 0; // Общее взвешенное количество занятых ячеек
-        for (int j = 0; j < 10; j++) {
-            for (int i = 0; i < 22; i++) {
-                if (gameField[i][j] != SPACE) {
-                    counter++;
-                    weight += i + 1;
+        // добавляет (sign = 1) или вычитает (sign = -1) вклад столбца j из сумм
+        private void addColumn(int j, int sign) {
+            wellCells += sign * state[WELL_CELLS + j];
+            if (state[WELL_CELLS + j] >= 3) deepWells += sign;
+            holes += sign * state[HOLES + j];
+            holeWeight += sign * state[HOLE_WEIGHT + j];
+            holeDepth += sign * state[HOLE_DEPTH + j];
+        }
+
+        // наибольшие и наименьшие значения по столбцам и высоты столбцов
+        private void summarize(GameField field) {
+            minHoleDepth = GameField.HEIGHT;
+            maxHoleDepth = 0;
+            totalHeight = 0;
+            maxHeight = 0;
+            dispersion = 0;
+            int minHeight = GameField.HEIGHT;
+            int height = 0;
+            for (int j = 0; j < GameField.WIDTH; j++) {
+                if (state[MIN_HOLE_DEPTH + j] < minHoleDepth) minHoleDepth = state[MIN_HOLE_DEPTH + j];
+                if (state[MAX_HOLE_DEPTH + j] > maxHoleDepth) maxHoleDepth = state[MAX_HOLE_DEPTH + j];
+
+                int columnHeight = field.getColumnHeight(j);
+                int lastHeight = height;
+                if (columnHeight != 0) {
+                    totalHeight += columnHeight;
+                    height = columnHeight;
+                    if (columnHeight > maxHeight) maxHeight = columnHeight;
+                    if (columnHeight < minHeight) minHeight = columnHeight;
                 }
+                if (j != 0) dispersion += abs(height - lastHeight);
             }
+            spread = maxHeight - minHeight;
         }
-        return counter * p[14] + weight * p[15];
     }
 }
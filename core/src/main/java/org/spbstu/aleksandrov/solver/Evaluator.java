@@ -0,0 +1,15 @@
+package org.spbstu.aleksandrov.solver;
+
+// Grades the fields of the search, the lower grade is the better field. The search threads share one evaluator, so
+// an implementation must not change after it is given to the Solver.
+public interface Evaluator {
+
+    // Grade of the tetromino locked with the lowest row lockHeight, the grades of the tetrominoes of a path are added
+    double countLockHeight(int lockHeight);
+
+    // Grade of the occupied cells of the field given by their features, the same cells always get the same grade
+    double evaluateCells(EvaluationCounter.Features features);
+
+    // Grade of the field with the cells graded by evaluateCells, removedLines are cleared since the root of the search
+    double evaluate(int removedLines, double lockHeight, double cells);
+}
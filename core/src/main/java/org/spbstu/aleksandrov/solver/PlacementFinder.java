@@ -0,0 +1,213 @@
+package org.spbstu.aleksandrov.solver;
+
+import org.spbstu.aleksandrov.model.GameField;
+import org.spbstu.aleksandrov.model.PieceTable;
+import org.spbstu.aleksandrov.model.Tetromino;
+import org.spbstu.aleksandrov.model.Tetromino.Movement;
+
+// BFS over the positions of one tetromino on the field. A position is the state and the rotation point packed into
+// an int, the queue, the paths and the visited positions are kept in preallocated arrays, so the search allocates
+// nothing. The locked positions covering the same cells (O in any state, I, S and Z turned by 180 degrees) are
+// reported once, with the shortest path.
+//
+// The rows above the highest column are empty, so the tetromino falls through them with one DOWN node: the BFS
+// visits the states and columns at the spawn height and at the lowest row where no rotation reaches the stack, and
+// expands row by row only near the stack, where the tucks and the spins are. The movements above that row do not
+// depend on the height, so the same placements are found. Restricted searches (PLAYER plays) keep the DOWN movements
+// row by row.
+class PlacementFinder {
+
+    // y + 2 in 5 bits, x + 2 in 4 bits, state in 2 bits
+    static final int POSITIONS = 1 << 11;
+    static final Movement[] MOVEMENTS = Movement.values();
+    private static final int[] SPAWNS = new int[Tetromino.Type.values().length];
+
+    static {
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            Tetromino tetromino = new Tetromino(type);
+            Tetromino.Coordinate rotationPoint = tetromino.getRotationPoint();
+            SPAWNS[type.ordinal()] = pack(rotationPoint.getX(), rotationPoint.getY(), tetromino.getState());
+        }
+    }
+
+    static int pack(int x, int y, int state) {
+        return (y + 2) << 6 | (x + 2) << 2 | state;
+    }
+
+    static int x(int position) {
+        return (position >>> 2 & 15) - 2;
+    }
+
+    static int y(int position) {
+        return (position >>> 6) - 2;
+    }
+
+    static int state(int position) {
+        return position & 3;
+    }
+
+    static int pack(Tetromino tetromino) {
+        Tetromino.Coordinate rotationPoint = tetromino.getRotationPoint();
+        return pack(rotationPoint.getX(), rotationPoint.getY(), tetromino.getState());
+    }
+
+    // Position of a new tetromino of the type
+    static int spawn(Tetromino.Type type) {
+        return SPAWNS[type.ordinal()];
+    }
+
+    private Tetromino.Type type;
+
+    // Nodes of the last search in the BFS order, the nodes after the current one are the queue
+    private final int[] positions = new int[POSITIONS];
+    private final int[] parents = new int[POSITIONS];
+    private final byte[] movements = new byte[POSITIONS]; // movement that lead to the node
+    private final byte[] distances = new byte[POSITIONS]; // times the movement is repeated
+    private final int[] ks = new int[POSITIONS]; // counter how many movements done after DOWN
+    private int size = 0;
+
+    // Nodes of the locked positions in the BFS order
+    private final int[] locked = new int[POSITIONS];
+    private int lockedCount = 0;
+
+    // position -> node, valid if visited[position] == generation
+    private final int[] nodes = new int[POSITIONS];
+    private final int[] visited = new int[POSITIONS];
+    // landing[position of the shape] == generation if the cells are locked already
+    private final int[] landings = new int[POSITIONS];
+    private int generation = 0;
+
+    // limit - movements allowed between two DOWN movements (PLAYER plays), Integer.MAX_VALUE if not restricted.
+    // Returns the number of locked positions, 0 if the start position is occupied (the game is over).
+    int search(GameField field, Tetromino.Type type, int start, int limit) {
+        this.type = type;
+        generation++;
+        size = 0;
+        lockedCount = 0;
+        // the tetromino falls to the row fall at once, from there neither the cells nor the wall kicks (at most 2 rows
+        // down) of any state reach the stack
+        int fall = Integer.MAX_VALUE;
+        if (limit == Integer.MAX_VALUE) {
+            int top = 0;
+            for (int x = 0; x < GameField.WIDTH; x++) top = Math.max(top, field.getColumnHeight(x));
+            int bottom = 0;
+            for (int state = 0; state < PieceTable.STATES; state++) bottom = Math.min(bottom, PieceTable.minY(type, state));
+            fall = top + 2 - bottom;
+        }
+        if (!field.isPositionEmpty(type, state(start), x(start), y(start))) return 0;
+        add(start, -1, -1, 0, 0);
+
+        for (int node = 0; node < size; node++) {
+            int position = positions[node];
+            int x = x(position);
+            int y = y(position);
+            int state = state(position);
+            boolean falls = field.isPositionEmpty(type, state, x, y - 1);
+
+            // Generate following positions
+            for (Movement movement : MOVEMENTS) {
+                int next = -1;
+                int distance = 1;
+                if (movement == Movement.DOWN) {
+                    if (falls) {
+                        if (y - 1 > fall) distance = y - fall;
+                        next = pack(x, y - distance, state);
+                    }
+                } else if (movement == Movement.RIGHT || movement == Movement.LEFT) {
+                    int nextX = movement == Movement.RIGHT ? x + 1 : x - 1;
+                    if (field.isPositionEmpty(type, state, nextX, y)) next = pack(nextX, y, state);
+                } else {
+                    int attempt = field.findRotation(type, state, x, y, movement);
+                    if (attempt >= 0) {
+                        next = pack(x + PieceTable.kickX(type, state, movement, attempt),
+                                y + PieceTable.kickY(type, state, movement, attempt),
+                                PieceTable.rotatedState(state, movement));
+                    }
+                }
+                if (next < 0 || visited[next] == generation) continue;
+
+                if (ks[node] < limit) add(next, node, movement.ordinal(), distance, movement != Movement.DOWN ? ks[node] + 1 : 0);
+                else if (movement == Movement.DOWN) add(next, node, movement.ordinal(), distance, 0);
+            }
+
+            if (!falls && isNewLanding(x, y, state)) locked[lockedCount++] = node;
+        }
+        return lockedCount;
+    }
+
+    private boolean isNewLanding(int x, int y, int state) {
+        int shape = PieceTable.shape(type, state);
+        int landing = pack(x + PieceTable.minX(type, state) - PieceTable.minX(type, shape),
+                y + PieceTable.minY(type, state) - PieceTable.minY(type, shape), shape);
+        if (landings[landing] == generation) return false;
+        landings[landing] = generation;
+        return true;
+    }
+
+    private void add(int position, int parent, int movement, int distance, int k) {
+        visited[position] = generation;
+        nodes[position] = size;
+        positions[size] = position;
+        parents[size] = parent;
+        movements[size] = (byte) movement;
+        distances[size] = (byte) distance;
+        ks[size] = k;
+        size++;
+    }
+
+    Tetromino.Type getType() {
+        return type;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getLockedCount() {
+        return lockedCount;
+    }
+
+    // Position of the locked node number i
+    int getLocked(int i) {
+        return positions[locked[i]];
+    }
+
+    // Returns the node of the position of the last search or -1
+    int node(int position) {
+        return visited[position] == generation ? nodes[position] : -1;
+    }
+
+    int position(int node) {
+        return positions[node];
+    }
+
+    // Returns -1 for the start position
+    int parent(int node) {
+        return parents[node];
+    }
+
+    Movement movement(int node) {
+        return parents[node] < 0 ? null : MOVEMENTS[movements[node]];
+    }
+
+    // Number of the movements from the parent, DOWN may fall several rows at once
+    int distance(int node) {
+        return distances[node];
+    }
+
+    int k(int node) {
+        return ks[node];
+    }
+
+    // The tetromino at the position, allocates
+    static Tetromino toTetromino(Tetromino.Type type, int position) {
+        Tetromino tetromino = new Tetromino(type);
+        tetromino.set(state(position), x(position), y(position));
+        return tetromino;
+    }
+
+    // Lowest row of the tetromino at the position
+    static int lockHeight(Tetromino.Type type, int position) {
+        return y(position) + PieceTable.minY(type, state(position));
+    }
+}
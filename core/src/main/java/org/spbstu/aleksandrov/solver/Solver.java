@@ -1,181 +1,965 @@
 package org.spbstu.aleksandrov.solver;
 
-import org.spbstu.aleksandrov.controller.Robot;
-import org.spbstu.aleksandrov.controller.RobotInput;
+import org.spbstu.aleksandrov.controller.Agent;
+import org.spbstu.aleksandrov.model.Command;
 import org.spbstu.aleksandrov.model.GameField;
 import org.spbstu.aleksandrov.model.GameSession;
+import org.spbstu.aleksandrov.model.GameSnapshot;
 
 import org.spbstu.aleksandrov.model.Tetromino.Movement;
 import org.spbstu.aleksandrov.model.Tetromino;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.spbstu.aleksandrov.Tetris.*;
-import static org.spbstu.aleksandrov.model.Tetromino.Movement.ROT_L;
-import static org.spbstu.aleksandrov.model.Tetromino.Movement.ROT_R;
 
 public class Solver {
 
-    private GameSession gameSession;
-    private final RobotInput robot;
-    private final int LIMIT = 2; // How many next tetrominoes will be processed
-    private boolean solving = false;
+    private volatile GameSession gameSession;
+    private Agent robot;
+    private static final int LIMIT = 2; // How many next tetrominoes will be processed by default
+    // The falling, the next and the rest of the bucket are known, at most 2 + 6 tetrominoes
+    private static final int MAX_DEPTH = 8;
+    private volatile boolean solving = false;
     private int lastCounter = -1;
     private boolean ready;
     private Tetromino.Type[] bucket = new Tetromino.Type[7];
     private int level;
+    // Number of the solved tetromino in the game session
+    private int tCounter;
 
     // Delay for enumeration of locked positions demonstration
-    private final int DELAY = 0;
+    private static final int DELAY = 0;
 
     public Solver(GameSession gameSession) {
         this.gameSession = gameSession;
-        this.robot = new Robot(this, gameSession);
+        for (int i = 0; i < MAX_EXPECTIMAX_DEPTH; i++) chanceFinders[i] = new PlacementFinder();
+        for (int i = 0; i < MAX_DEPTH; i++) beam[i] = new BeamNodes();
     }
 
+    // The agent performs the found movements when the ROBOT or the PLAYER plays
+    public void setAgent(Agent robot) {
+        this.robot = robot;
+    }
+
+    // Finds the best placement of the last tetromino published by the game session, the result is available through
+    // getCommand(), getMovements() and getBestLocation()
+    public void solve() {
+        solve(gameSession.getSnapshot());
+    }
+
+    public void solve(GameSnapshot snapshot) {
+        bucket = snapshot.getBucket();
+        level = snapshot.getLevel();
+        lastCounter = snapshot.getCounter();
+        tCounter = snapshot.getTCounter();
+        // the search stacks tetrominoes in place on the field of the solver
+        GameField field = snapshotField;
+        snapshot.copyTo(field);
+        Tetromino.Type next = snapshot.getNext();
+        int position = PlacementFinder.pack(snapshot.getX(), snapshot.getY(), snapshot.getState());
+        if (!takePondered(field, position, snapshot.getFalling(), next))
+            startSearch(field, position, snapshot.getFalling(), next);
+        if (pondering) ponder(field, next);
+    }
+
+    // Solves every new falling tetromino, the thread parks while the game session has no new tetromino
     public void startSolving() {
+        int lastTetromino = -1;
         while (solving) {
-            if (gameSession.getCounter() != lastCounter && gameSession.isReady()) {
+            GameSession session = gameSession;
+            GameSnapshot snapshot = session.getSnapshot();
+            if (snapshot.getTCounter() != lastTetromino) {
+                lastTetromino = snapshot.getTCounter();
                 ready = false;
-                bestGrade = Double.MAX_VALUE;
-                bucket = gameSession.getBucket();
-                level = gameSession.getLevel();
-                lastCounter = gameSession.getCounter();
-                search(gameSession.getGameField(), 0, 0);
-                if (ROBOT || PLAYER) ready = robot.takeAction();
+                solve(snapshot);
+                if ((ROBOT || PLAYER) && robot != null) ready = robot.takeAction();
                 else ready = true;
             } else {
                 ready = true;
+                // no tetromino comes after the game over, the next game starts a new solving thread
+                if (session.isGameOver()) return;
                 try {
-                    Thread.sleep(0);
+                    // the timeout only guards against a game session replaced by update()
+                    session.awaitTetromino(lastTetromino, 1000);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
     }
 
+    // Placements are packed positions of PlacementFinder
+    private static final int NONE = -1;
+
     double bestGrade;
+    private final Search main = new Search();
     public final Position[][][] lockPositions = new Position[22][10][4];
-    private final boolean[][][][] visited = new boolean[7][10][22][4];
-    private final Position[] solution = new Position[LIMIT];
-    private final Position[] bestSolution = new Position[LIMIT];
-
-    // BFS
-    private void search(GameField field, int counter, int clearedLines) {
-
-        // gameCounter points at the nextTetromino + 1
-        int index = lastCounter - 2 + counter;
-        Tetromino initTetromino;
-
-        if (counter == 0) initTetromino = gameSession.getFallingTetromino().clone();
-        else if (counter == 1) initTetromino = gameSession.getNextTetromino().clone();
-        else initTetromino = new Tetromino(bucket[index]);
-
-        for (int i = counter; i < LIMIT; i++) {
-            for (int x = 0; x < 10; x++) {
-                for (int y = 0; y < 22; y++) {
-                    for (int r = 0; r < 4; r++) {
-                        visited[i][x][y][r] = false;
-                    }
+    private final int[] bestSolution = new int[MAX_DEPTH];
+    // movements of the falling tetromino to bestSolution[0]
+    private final Movement[] bestMovements = new Movement[PlacementFinder.POSITIONS];
+    private int bestMovementsCount = 0;
+    // the field of the last snapshot, built once per decision
+    private final GameField snapshotField = new GameField();
+
+    // Root level search: the placements of the falling tetromino are divided between the workers
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    private Search[] workers = new Search[0];
+    private final Callable<Void> mainTask = rootTask(main);
+    private List<Callable<Void>> workerTasks = new ArrayList<>();
+    // the root search being run by the tasks
+    private GameField rootField;
+    private PlacementFinder rootPlacements;
+    private int rootCount;
+    private final AtomicInteger nextPlacement = new AtomicInteger();
+    // Grades and paths of the root placements or of the beam, the candidates of the expectimax. They grow with the
+    // number of the candidates and are reused by the next searches.
+    private double[] rootGrades = new double[0];
+    private int[][] rootPaths = new int[0][];
+    private boolean[] taken = new boolean[0];
+
+    // Exhaustive search of searchDepth tetrominoes
+    private int searchDepth = LIMIT;
+
+    // Beam search keeps the beamWidth best fields after every tetromino, 0 is the exhaustive search
+    private int beamWidth = 0;
+    private int beamDepth = LIMIT;
+    private final BeamNodes[] beam = new BeamNodes[MAX_DEPTH];
+    private final BeamNodes candidates = new BeamNodes();
+    private int[] order = new int[0];
+    private int[] sortBuffer = new int[0];
+
+    // Anytime search: the search is deepened while the time budget of the decision lasts, the deepest completed
+    // search is used
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+    private boolean anytime = false;
+    private long deadline = Long.MAX_VALUE;
+    private volatile boolean aborted;
+    private int searchedDepth;
+
+    // Adaptive search: a low field without holes is searched one tetromino less and with the half of the beam, a high
+    // or holed field one tetromino more and with the double beam
+    private static final int SAFE_HEIGHT = 6;
+    private static final int DANGER_HEIGHT = 12;
+    private static final int DANGER_HOLES = 5;
+    private boolean adaptive = false;
+    private int width; // beam width of the current search
+
+    // Expectimax: the expectimaxWidth best candidates of a search cut by the end of the bucket are graded again with
+    // up to expectimaxDepth more tetrominoes. The next bucket is a new permutation of the 7 types, so every type not
+    // drawn from it yet comes with the same probability, the grade is the expected best grade. 0 switches it off.
+    private static final int MAX_EXPECTIMAX_DEPTH = 2;
+    private static final Tetromino.Type[] TYPES = Tetromino.Type.values();
+    private int expectimaxWidth = 0;
+    private int expectimaxDepth = 1;
+    private final PlacementFinder[] chanceFinders = new PlacementFinder[MAX_EXPECTIMAX_DEPTH];
+    private int known; // tetrominoes known in the current search
+    private int chanceDepth; // tetrominoes averaged over after the known ones
+    private int expectedDepth; // chance layers applied in the last search
+
+    // Pondering: a second solver searches the expected next decision on its own thread
+    private boolean pondering = false;
+    private Solver ponderer;
+    private ExecutorService ponderExecutor;
+    private Future<?> ponderTask;
+    private volatile boolean cancelled = false;
+    private int ponderHits = 0;
+    // the state of the game the ponderer searches for
+    private long ponderHash;
+    private int ponderPosition;
+    private int ponderCounter;
+    private int ponderLevel;
+    private Tetromino.Type ponderFalling;
+    private Tetromino.Type ponderNext;
+    private Evaluator ponderEvaluator;
+
+    // Grades of the fields. setEvaluator may be called from any thread, the new evaluator is taken at the start of the
+    // next decision and the grades of the old one are dropped from the tables
+    private volatile Evaluator nextEvaluator = new EvaluationCounter();
+    private Evaluator evaluator = nextEvaluator;
+
+    // Subtrees are identified by the field, the number of cleared lines and the tetrominoes left to place. The keys
+    // and the grades of the subtrees do not depend on the tetrominoes placed before, so the transposition table keeps
+    // them between the decisions: the subtrees under the chosen placement are found again in the next search.
+    private static final long[][] PIECE_KEYS = new long[MAX_DEPTH][Tetromino.Type.values().length];
+    private static final long CLEARED_LINES_KEY;
+    private final Tetromino.Type[] pieces = new Tetromino.Type[MAX_DEPTH];
+    private final long[] remainingKeys = new long[MAX_DEPTH + 1];
+    private final int[] lockHeights = new int[MAX_DEPTH];
+    private int depth;
+    private int fallingPosition;
+    private int moveLimit;
+    // the placements of the deepest completed iteration of the anytime search
+    private final int[] completed = new int[MAX_DEPTH];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x2545F4914F6CDD1DL);
+        for (long[] keys : PIECE_KEYS)
+            for (int i = 0; i < keys.length; i++) keys[i] = random.nextLong();
+        CLEARED_LINES_KEY = random.nextLong();
+    }
+
+    // The search uses bucket, lastCounter and level besides the arguments, it does not read the game session
+    private void startSearch(GameField field, int position, Tetromino.Type falling, Tetromino.Type next) {
+        long start = System.nanoTime();
+        Evaluator current = nextEvaluator;
+        if (current != evaluator) {
+            evaluator = current;
+            main.clear();
+            for (Search worker : workers) worker.clear();
+        }
+        // gameCounter points at the nextTetromino + 1, the search does not look beyond the current bucket
+        known = 1;
+        fallingPosition = position;
+        pieces[0] = falling;
+        int limit = beamWidth > 0 ? beamDepth : searchDepth;
+        width = beamWidth;
+        if (adaptive) {
+            int danger = danger(field);
+            limit = Math.max(1, Math.min(MAX_DEPTH, limit + danger));
+            if (danger < 0) width = Math.max(1, beamWidth / 2);
+            else if (danger > 0) width = beamWidth * 2;
+        }
+        while (known < limit && lastCounter - 3 + known < 6) {
+            pieces[known] = known == 1 ? next : bucket[lastCounter - 2 + known];
+            known++;
+        }
+        chanceDepth = expectimaxWidth > 0 ? Math.min(expectimaxDepth, limit - known) : 0;
+
+        // restrictions associated with level (PLAYER plays)
+        if (PLAYER) moveLimit = level <= 30 ? GameSession.FRAMES_PER_STEP[level - 1] : 1;
+        else moveLimit = Integer.MAX_VALUE;
+
+        aborted = false;
+        deadline = Long.MAX_VALUE;
+        if (!anytime) {
+            depth = known;
+            bestGrade = search(field);
+            searchedDepth = depth + expectedDepth;
+        } else if (beamWidth > 0) {
+            // every level of the beam is complete by itself, the first one is never interrupted
+            depth = known;
+            deadline = start + timeBudget(level);
+            bestGrade = search(field);
+        } else {
+            // iterative deepening, the first iteration is never interrupted, so there is always a move
+            for (depth = 1; depth <= known && !aborted; depth++) {
+                double grade = search(field);
+                if (aborted) break;
+                bestGrade = grade;
+                searchedDepth = depth + expectedDepth;
+                System.arraycopy(bestSolution, 0, completed, 0, MAX_DEPTH);
+                deadline = start + timeBudget(level);
+            }
+            System.arraycopy(completed, 0, bestSolution, 0, MAX_DEPTH);
+        }
+
+        PlacementFinder finder = main.finders[0];
+        int node = bestSolution[0] == NONE ? -1 : finder.node(bestSolution[0]);
+        bestMovementsCount = 0;
+        for (int n = node; n >= 0 && finder.parent(n) >= 0; n = finder.parent(n)) bestMovementsCount += finder.distance(n);
+        for (int n = node, i = bestMovementsCount; i > 0; n = finder.parent(n)) {
+            for (int j = 0; j < finder.distance(n); j++) bestMovements[--i] = finder.movement(n);
+        }
+    }
+
+    // Searches the first depth tetrominoes of pieces, the placements are stored in bestSolution
+    private double search(GameField field) {
+        // the key of a tetromino depends on its place in the subtree, not in the whole search
+        for (int counter = 0; counter <= depth; counter++) {
+            remainingKeys[counter] = 0;
+            for (int i = counter; i < depth; i++) remainingKeys[counter] ^= PIECE_KEYS[i - counter][pieces[i].ordinal()];
+        }
+
+        Arrays.fill(bestSolution, NONE);
+        expectedDepth = 0;
+        if (beamWidth > 0) return beamSearch(field);
+        if ((workers.length > 1 || chanceDepth > 0) && depth > 1) return rootSearch(field);
+        main.transpositionTable.newSearch();
+        double grade = main.search(field, 0, 0);
+        System.arraycopy(main.bestPaths[0], 0, bestSolution, 0, depth);
+        return grade;
+    }
+
+    private boolean isExpired() {
+        if (cancelled || System.nanoTime() > deadline) aborted = true;
+        return aborted;
+    }
+
+    // Starts the search of the next decision in the background, assuming the falling tetromino is placed as chosen
+    private void ponder(GameField field, Tetromino.Type next) {
+        // the next bucket is not shuffled yet
+        if (bestSolution[0] == NONE || lastCounter >= 7) return;
+
+        GameField expected = field.clone();
+        apply(expected, 0, bestSolution[0]);
+        // the new falling tetromino appears 2 rows lower if there is enough space (see generateNewTetromino)
+        int spawn = PlacementFinder.spawn(next);
+        int x = PlacementFinder.x(spawn);
+        int state = PlacementFinder.state(spawn);
+        if (!expected.isPositionEmpty(next, state, x, PlacementFinder.y(spawn))) return;
+        int y = PlacementFinder.y(spawn) - 2;
+        while (!expected.isPositionEmpty(next, state, x, y)) y++;
+
+        ponderHash = expected.getHash();
+        ponderPosition = PlacementFinder.pack(x, y, state);
+        ponderCounter = lastCounter + 1;
+        ponderLevel = level;
+        ponderFalling = next;
+        ponderNext = bucket[lastCounter];
+        ponderEvaluator = evaluator;
+        int position = ponderPosition;
+        Tetromino.Type nextNext = ponderNext;
+        Tetromino.Type[] nextBucket = bucket.clone();
+        int nextCounter = lastCounter + 1;
+        int nextLevel = level;
+        int nextSearchDepth = searchDepth;
+        int nextBeamWidth = beamWidth;
+        int nextBeamDepth = beamDepth;
+        int nextExpectimaxWidth = expectimaxWidth;
+        int nextExpectimaxDepth = expectimaxDepth;
+        boolean nextAdaptive = adaptive;
+        boolean nextAnytime = anytime;
+        int nextParallelism = parallelism;
+        Evaluator ponderedEvaluator = evaluator;
+        // the ponderer is configured on its own thread, the cancelled search may still run before
+        ponderTask = ponderExecutor.submit(() -> {
+            ponderer.cancelled = false;
+            ponderer.bucket = nextBucket;
+            ponderer.lastCounter = nextCounter;
+            ponderer.level = nextLevel;
+            ponderer.searchDepth = nextSearchDepth;
+            ponderer.beamWidth = nextBeamWidth;
+            ponderer.beamDepth = nextBeamDepth;
+            ponderer.expectimaxWidth = nextExpectimaxWidth;
+            ponderer.expectimaxDepth = nextExpectimaxDepth;
+            ponderer.adaptive = nextAdaptive;
+            ponderer.anytime = nextAnytime;
+            ponderer.setParallelism(nextParallelism);
+            ponderer.setEvaluator(ponderedEvaluator);
+            ponderer.startSearch(expected, position, next, nextNext);
+        });
+    }
+
+    // Takes the result of the background search if it was made for the current state of the game
+    private boolean takePondered(GameField field, int position, Tetromino.Type falling, Tetromino.Type next) {
+        if (ponderTask == null) return false;
+        Future<?> task = ponderTask;
+        ponderTask = null;
+        if (field.getHash() != ponderHash || position != ponderPosition || lastCounter != ponderCounter ||
+                level != ponderLevel || falling != ponderFalling || next != ponderNext ||
+                nextEvaluator != ponderEvaluator) {
+            // the single thread of the executor finishes the cancelled search before the next one
+            task.cancel(false);
+            ponderer.cancelled = true;
+            return false;
+        }
+
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+        depth = ponderer.depth;
+        bestGrade = ponderer.bestGrade;
+        searchedDepth = ponderer.searchedDepth;
+        System.arraycopy(ponderer.pieces, 0, pieces, 0, MAX_DEPTH);
+        System.arraycopy(ponderer.bestSolution, 0, bestSolution, 0, MAX_DEPTH);
+        bestMovementsCount = ponderer.bestMovementsCount;
+        System.arraycopy(ponderer.bestMovements, 0, bestMovements, 0, bestMovementsCount);
+        ponderHits++;
+        return true;
+    }
+
+    // The next decision is searched while the agent performs the movements of the current one
+    public void setPondering(boolean pondering) {
+        if (pondering == this.pondering) return;
+        this.pondering = pondering;
+        if (pondering) {
+            ponderer = new Solver(gameSession);
+            ponderExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            ponderer.cancelled = true;
+            Solver stopped = ponderer;
+            ponderExecutor.submit(() -> stopped.setParallelism(1));
+            ponderExecutor.shutdown();
+            ponderTask = null;
+        }
+    }
+
+    public boolean isPondering() {
+        return pondering;
+    }
+
+    // Number of decisions taken from the background search
+    public int getPonderHits() {
+        return ponderHits;
+    }
+
+    // Time of the tetromino falling one row at the level, libGDX renders 60 frames per second
+    public static long timeBudget(int level) {
+        int frames = level <= 30 ? GameSession.FRAMES_PER_STEP[level - 1] : 1;
+        return frames * FRAME_NANOS;
+    }
+
+    public void setAnytime(boolean anytime) {
+        this.anytime = anytime;
+    }
+
+    public boolean isAnytime() {
+        return anytime;
+    }
+
+    // Number of tetrominoes the last decision looked ahead
+    public int getSearchedDepth() {
+        return searchedDepth;
+    }
+
+    // Every worker takes the next placement of the falling tetromino and searches its subtree on its own copy of the
+    // field. The placements are compared in the order of the sequential search, so the result is the same. Without
+    // the workers the main search grades the placements on the calling thread, for the expectimax.
+    private double rootSearch(GameField field) {
+        PlacementFinder placements = main.findPlacements(field, 0);
+        int count = placements.getLockedCount();
+        ensureCandidates(count);
+        Arrays.fill(rootGrades, 0, count, Double.MAX_VALUE);
+        rootField = field;
+        rootPlacements = placements;
+        rootCount = count;
+        nextPlacement.set(0);
+        try {
+            if (pool == null) mainTask.call();
+            else for (Future<Void> future : pool.invokeAll(workerTasks)) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Search failed", e);
+        } finally {
+            rootField = null;
+        }
+
+        if (chanceDepth > 0 && depth == known && !aborted) return expectimax(field, rootPaths, rootGrades, count);
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (rootGrades[i] < best) {
+                best = rootGrades[i];
+                System.arraycopy(rootPaths[i], 0, bestSolution, 0, depth);
+            }
+        }
+        return best;
+    }
+
+    // Grades the root placements taken one at a time on the copy of the field of the worker
+    private Callable<Void> rootTask(Search worker) {
+        return () -> {
+            worker.copy.set(rootField);
+            worker.transpositionTable.newSearch();
+            for (int i = nextPlacement.getAndIncrement(); i < rootCount; i = nextPlacement.getAndIncrement()) {
+                if (isExpired()) break;
+                int placement = rootPlacements.getLocked(i);
+                rootGrades[i] = worker.place(worker.copy, placement, 0, 0);
+                rootPaths[i][0] = placement;
+                System.arraycopy(worker.bestPaths[1], 1, rootPaths[i], 1, depth - 1);
+            }
+            return null;
+        };
+    }
+
+    // Grows the arrays of the candidates to at least count
+    private void ensureCandidates(int count) {
+        if (rootGrades.length >= count) return;
+        int capacity = Math.max(count, 2 * rootGrades.length);
+        rootGrades = new double[capacity];
+        rootPaths = new int[capacity][MAX_DEPTH];
+        taken = new boolean[capacity];
+    }
+
+    // The fields are graded by the EvaluationCounter after every tetromino, the beamWidth best different fields are
+    // expanded with the next tetromino. The placements leading to the best field are stored in bestSolution.
+    private double beamSearch(GameField field) {
+        searchedDepth = 0;
+        for (int counter = 0; counter < depth; counter++) {
+            // the previous level, the root field before the first tetromino
+            BeamNodes parents = counter > 0 ? beam[counter - 1] : null;
+            int parentCount = counter > 0 ? parents.size : 1;
+            candidates.clear();
+            for (int k = 0; k < parentCount; k++) {
+                if (counter > 0 && isExpired()) break;
+                GameField parentField = counter > 0 ? parents.fields[k] : field;
+                int parentLines = counter > 0 ? parents.clearedLines[k] : 0;
+                for (int c = counter - 1, n = k; c >= 0; n = beam[c--].parent[n])
+                    lockHeights[c] = PlacementFinder.lockHeight(pieces[c], beam[c].placement[n]);
+                PlacementFinder finder = main.findPlacements(parentField, counter);
+                main.parentFeatures.extract(parentField);
+                for (int i = 0; i < finder.getLockedCount(); i++) {
+                    int placement = finder.getLocked(i);
+                    int lines = apply(parentField, counter, placement);
+                    int clearedLines = parentLines + lines;
+                    lockHeights[counter] = PlacementFinder.lockHeight(pieces[counter], placement);
+                    double lockHeight = 0;
+                    for (int j = 0; j <= counter; j++) lockHeight += evaluator.countLockHeight(lockHeights[j]);
+                    double grade = main.evaluate(parentField, pieces[counter], placement, lines, clearedLines,
+                            lockHeight);
+                    long key = parentField.getHash() ^ clearedLines * CLEARED_LINES_KEY;
+                    candidates.add(k, placement, clearedLines, grade, key);
+                    parentField.undo();
                 }
             }
+            // the time is over or the game is over after the previous tetromino
+            if (aborted || candidates.size == 0) break;
+
+            // stable, equal grades keep the order of the search
+            if (order.length < candidates.size) {
+                order = new int[candidates.capacity()];
+                sortBuffer = new int[candidates.capacity()];
+            }
+            for (int i = 0; i < candidates.size; i++) order[i] = i;
+            sortByGrade(order, sortBuffer, candidates.grade, 0, candidates.size);
+            BeamNodes level = beam[counter];
+            level.clear();
+            for (int i = 0; i < candidates.size && level.size < width; i++) {
+                int candidate = order[i];
+                // different orders of the same placements lead to the same field
+                if (level.contains(candidates.key[candidate])) continue;
+                int parent = candidates.parent[candidate];
+                int k = level.add(parent, candidates.placement[candidate], candidates.clearedLines[candidate],
+                        candidates.grade[candidate], candidates.key[candidate]);
+                // the fields of the level are reused by the next searches
+                if (level.fields[k] == null) level.fields[k] = new GameField();
+                level.fields[k].set(counter > 0 ? parents.fields[parent] : field);
+                apply(level.fields[k], counter, level.placement[k]);
+            }
+            searchedDepth = counter + 1;
         }
+        if (searchedDepth == 0) return 0;
 
-        Deque<Position> queue = new ArrayDeque<>();
-        queue.add(new Position(null, initTetromino.clone(), null, 0));
-
-        while (!queue.isEmpty()) {
-            Position current = queue.pop();
-            // Generate following positions
-            for (Movement movement : Movement.values()) {
-                Tetromino tetromino = current.getTetromino().clone();
-                if (movement == ROT_L || movement == ROT_R)
-                    gameSession.getGameField().rotateOnField(movement, tetromino);
-                else tetromino.move(movement);
-                boolean condition = field.areCellsEmpty(tetromino.getCoordinates());
-                if (condition) {
-                    // here only push to queue new positions
-                    int x = tetromino.getCoordinates().get(0).getX();
-                    int y = tetromino.getCoordinates().get(0).getY();
-                    int state = tetromino.getState();
-                    if (!visited[counter][x][y][state]) {
-                        if (PLAYER) {
-                            // restrictions associated with level (PLAYER plays)
-                            int limit;
-                            if (level <= 30) limit = GameSession.FRAMES_PER_STEP[level - 1];
-                            else limit = 1;
-
-                            if (current.getK() < limit) {
-                                visited[counter][x][y][state] = true;
-                                if (movement != Movement.DOWN)
-                                    queue.add(new Position(current, tetromino.clone(), movement, current.getK() + 1));
-                                else queue.add(new Position(current, tetromino.clone(), movement, 0));
-                            } else {
-                                if (movement == Movement.DOWN) {
-                                    visited[counter][x][y][state] = true;
-                                    lockPositions[y][x][state] = new Position(current, tetromino.clone(), movement, 0);
-                                    queue.add(new Position(current, tetromino.clone(), movement, 0));
-                                }
-                            }
-                        } else {
-                            // no restrictions (ROBOT plays or HINTS enabled)
-                            if (!visited[counter][x][y][state]) {
-                                visited[counter][x][y][state] = true;
-                                lockPositions[y][x][state] = new Position(current, tetromino.clone(), movement, 0);
-                                queue.add(new Position(current, tetromino.clone(), movement, 0));
-                            }
-                        }
-                    }
+        BeamNodes last = beam[searchedDepth - 1];
+        if (chanceDepth > 0 && searchedDepth == depth && !aborted) {
+            ensureCandidates(last.size);
+            for (int i = 0; i < last.size; i++) beamPath(i, rootPaths[i]);
+            double grade = expectimax(field, rootPaths, last.grade, last.size);
+            searchedDepth += expectedDepth;
+            return grade;
+        }
+        beamPath(0, bestSolution);
+        return last.grade[0];
+    }
+
+    // Placements leading to the node number k of the last searched level of the beam
+    private void beamPath(int k, int[] path) {
+        for (int c = searchedDepth - 1, n = k; c >= 0; n = beam[c--].parent[n]) path[c] = beam[c].placement[n];
+    }
+
+    // Stable merge sort of the indices order[from..to) by the grades
+    private static void sortByGrade(int[] order, int[] buffer, double[] grades, int from, int to) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        sortByGrade(order, buffer, grades, from, middle);
+        sortByGrade(order, buffer, grades, middle, to);
+        if (Double.compare(grades[order[middle - 1]], grades[order[middle]]) <= 0) return;
+        System.arraycopy(order, from, buffer, from, to - from);
+        for (int i = from, j = middle, k = from; k < to; k++) {
+            if (j == to || i < middle && Double.compare(grades[buffer[i]], grades[buffer[j]]) <= 0)
+                order[k] = buffer[i++];
+            else order[k] = buffer[j++];
+        }
+    }
+
+    // Grades the expectimaxWidth best paths again, the grade of the last field is replaced with the expected grade of
+    // the next chanceDepth tetrominoes. Returns the best grade, the path is stored in bestSolution.
+    private double expectimax(GameField field, int[][] paths, double[] grades, int count) {
+        Arrays.fill(taken, 0, count, false);
+        double best = Double.MAX_VALUE;
+        for (int w = 0; w < expectimaxWidth; w++) {
+            // the best path not taken yet, equal grades keep the order of the search
+            int candidate = -1;
+            for (int i = 0; i < count; i++) {
+                if (!taken[i] && grades[i] < Double.MAX_VALUE && (candidate < 0 || grades[i] < grades[candidate]))
+                    candidate = i;
+            }
+            if (candidate < 0) break;
+            taken[candidate] = true;
+
+            int[] path = paths[candidate];
+            int clearedLines = 0;
+            double grade = 0;
+            for (int counter = 0; counter < depth; counter++) {
+                if (path[counter] == NONE) completePath(field, path, counter, clearedLines);
+                clearedLines += apply(field, counter, path[counter]);
+                grade += evaluator.countLockHeight(PlacementFinder.lockHeight(pieces[counter], path[counter]));
+            }
+            grade += chance(field, 0, 0, clearedLines);
+            for (int counter = 0; counter < depth; counter++) field.undo();
+
+            // a path topping out for some tetromino is not better than the deterministic best one
+            if (bestSolution[0] == NONE || grade < best) {
+                best = grade;
+                System.arraycopy(path, 0, bestSolution, 0, depth);
+            }
+        }
+        expectedDepth = chanceDepth;
+        return best;
+    }
+
+    // A subtree found in the transposition table gives only its first placement, the rest of the path is searched
+    // again past the table
+    private void completePath(GameField field, int[] path, int counter, int clearedLines) {
+        main.useTable = false;
+        try {
+            main.search(field, counter, clearedLines);
+        } finally {
+            main.useTable = true;
+        }
+        System.arraycopy(main.bestPaths[counter], counter, path, counter, depth - counter);
+    }
+
+    // Expected grade of the best placements of the tetrominoes after the known ones, drawn is the mask of the types
+    // already taken from the next bucket. Double.MAX_VALUE if some tetromino tops out.
+    private double chance(GameField field, int layer, int drawn, int clearedLines) {
+        PlacementFinder finder = chanceFinders[layer];
+        int remaining = TYPES.length - Integer.bitCount(drawn);
+        boolean last = layer + 1 == chanceDepth;
+        if (last) main.parentFeatures.extract(field);
+        double expected = 0;
+        for (Tetromino.Type type : TYPES) {
+            if ((drawn >>> type.ordinal() & 1) != 0) continue;
+            int spawn = PlacementFinder.spawn(type);
+            if (!field.isPositionEmpty(type, PlacementFinder.state(spawn), PlacementFinder.x(spawn),
+                    PlacementFinder.y(spawn))) return Double.MAX_VALUE;
+
+            double best = Double.MAX_VALUE;
+            finder.search(field, type, spawn, moveLimit);
+            for (int i = 0; i < finder.getLockedCount(); i++) {
+                int placement = finder.getLocked(i);
+                int cleared = field.apply(type, PlacementFinder.state(placement), PlacementFinder.x(placement),
+                        PlacementFinder.y(placement));
+                int lines = clearedLines + cleared;
+                double lockHeight = evaluator.countLockHeight(PlacementFinder.lockHeight(type, placement));
+                double grade = last
+                        ? main.evaluate(field, type, placement, cleared, lines, lockHeight)
+                        : lockHeight + chance(field, layer + 1, drawn | 1 << type.ordinal(), lines);
+                field.undo();
+                if (grade < best) best = grade;
+            }
+            if (best == Double.MAX_VALUE) return Double.MAX_VALUE;
+            expected += best / remaining;
+        }
+        return expected;
+    }
+
+    // -1 for a safe field, 1 for a dangerous one, 0 otherwise
+    private static int danger(GameField field) {
+        int maxHeight = 0;
+        for (int x = 0; x < GameField.WIDTH; x++) maxHeight = Math.max(maxHeight, field.getColumnHeight(x));
+        if (maxHeight >= DANGER_HEIGHT || field.getHoles() >= DANGER_HOLES) return 1;
+        if (maxHeight <= SAFE_HEIGHT && field.getHoles() == 0) return -1;
+        return 0;
+    }
+
+    // Stacks the tetromino number counter at the placement, returns the number of cleared lines
+    private int apply(GameField field, int counter, int placement) {
+        return field.apply(pieces[counter], PlacementFinder.state(placement), PlacementFinder.x(placement),
+                PlacementFinder.y(placement));
+    }
+
+    // Replaces the grading of the fields of the running solver, the decision being searched keeps the old one
+    public void setEvaluator(Evaluator evaluator) {
+        this.nextEvaluator = Objects.requireNonNull(evaluator);
+    }
+
+    public Evaluator getEvaluator() {
+        return nextEvaluator;
+    }
+
+    // Number of tetrominoes of the exhaustive search, the time grows about 35 times with every tetromino
+    public void setSearchDepth(int depth) {
+        if (depth < 1 || depth > MAX_DEPTH)
+            throw new IllegalArgumentException("depth must be in 1.." + MAX_DEPTH + ": " + depth);
+        this.searchDepth = depth;
+    }
+
+    public int getSearchDepth() {
+        return searchDepth;
+    }
+
+    TranspositionTable getTranspositionTable() {
+        return main.transpositionTable;
+    }
+
+    EvaluationCache getEvaluationCache() {
+        return main.evaluationCache;
+    }
+
+    // width 0 switches back to the exhaustive search, the depth is limited by the known tetrominoes
+    public void setBeam(int width, int depth) {
+        if (width < 0) throw new IllegalArgumentException("width must not be negative: " + width);
+        if (depth < 1 || depth > MAX_DEPTH)
+            throw new IllegalArgumentException("depth must be in 1.." + MAX_DEPTH + ": " + depth);
+        this.beamWidth = width;
+        this.beamDepth = depth;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    public int getBeamDepth() {
+        return beamDepth;
+    }
+
+    // The depth and the beam width follow the danger of the field
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    // width 0 switches the expectimax off. depth is the maximum number of tetrominoes after the end of the bucket, the
+    // search still looks at most searchDepth (beamDepth) tetrominoes ahead
+    public void setExpectimax(int width, int depth) {
+        if (width < 0) throw new IllegalArgumentException("width must not be negative: " + width);
+        if (depth < 1 || depth > MAX_EXPECTIMAX_DEPTH)
+            throw new IllegalArgumentException("depth must be in 1.." + MAX_EXPECTIMAX_DEPTH + ": " + depth);
+        this.expectimaxWidth = width;
+        this.expectimaxDepth = depth;
+    }
+
+    public int getExpectimaxWidth() {
+        return expectimaxWidth;
+    }
+
+    public int getExpectimaxDepth() {
+        return expectimaxDepth;
+    }
+
+    // Number of threads searching the placements of the falling tetromino, 1 searches on the calling thread
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        if (parallelism == this.parallelism) return;
+        this.parallelism = parallelism;
+        if (pool != null) pool.shutdown();
+        workerTasks = new ArrayList<>(parallelism);
+        if (parallelism == 1) {
+            pool = null;
+            workers = new Search[0];
+        } else {
+            pool = new ForkJoinPool(parallelism);
+            workers = new Search[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                workers[i] = new Search();
+                workerTasks.add(rootTask(workers[i]));
+            }
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // State of one search thread
+    private class Search {
+
+        // One finder for every tetromino, so the placements above the searched subtree stay valid
+        private final PlacementFinder[] finders = new PlacementFinder[MAX_DEPTH];
+        // bestPaths[counter] - the best placements found in the last searched subtree of the depth counter
+        private final int[][] bestPaths = new int[MAX_DEPTH][MAX_DEPTH];
+        private final TranspositionTable transpositionTable = new TranspositionTable(1 << 16);
+        private final EvaluationCounter.Features features = new EvaluationCounter.Features();
+        // features of the field before the last tetromino, the leaves update them with the placement
+        private final EvaluationCounter.Features parentFeatures = new EvaluationCounter.Features();
+        private final EvaluationCache evaluationCache = new EvaluationCache(1 << 16);
+        // the copy of the field the worker searches the root placements on
+        private final GameField copy = new GameField();
+        // false searches the subtrees without looking them up, so bestPaths are complete
+        private boolean useTable = true;
+
+        Search() {
+            for (int i = 0; i < MAX_DEPTH; i++) finders[i] = new PlacementFinder();
+        }
+
+        // Returns the best grade of the subtree without the lock heights of the tetrominoes placed before it, the
+        // placements leading to it are stored in bestPaths[counter]
+        private double search(GameField field, int counter, int clearedLines) {
+
+            int[] bestPath = bestPaths[counter];
+            Arrays.fill(bestPath, NONE);
+
+            long key = field.getHash() ^ remainingKeys[counter] ^ clearedLines * CLEARED_LINES_KEY;
+            if (counter > 0 && useTable) {
+                int entry = transpositionTable.find(key);
+                if (entry >= 0) {
+                    bestPath[counter] = transpositionTable.getPlacement(entry);
+                    return transpositionTable.getGrade(entry);
+                }
+            }
+
+            double best = Double.MAX_VALUE;
+            PlacementFinder finder = findPlacements(field, counter);
+            if (counter + 1 == depth) parentFeatures.extract(field);
+            for (int i = 0; i < finder.getLockedCount(); i++) {
+                // subtrees are never interrupted, so the transposition table keeps only complete results
+                if (counter == 0 && isExpired()) break;
+                int placement = finder.getLocked(i);
+                double grade = place(field, placement, counter, clearedLines);
+                if (grade < best) {
+                    best = grade;
+                    bestPath[counter] = placement;
+                    for (int j = counter + 1; j < depth; j++) bestPath[j] = bestPaths[counter + 1][j];
                 }
             }
 
-            // check if position is locked
-            Tetromino tetromino = current.getTetromino();
-            tetromino.move(0, -1);
-            boolean locked = !field.areCellsEmpty(tetromino.getCoordinates());
-            tetromino.move(0, 1);
-
-            // process locked position, make deeper search
-            if (locked) {
-                GameField modified = field.clone();
-                modified.stackTetromino(tetromino);
-                int newClearedLines = clearedLines + modified.checkLinesToClear(tetromino.getCoordinates());
-                modified.cleanLines();
-                solution[counter] = current;
-                if (counter + 1 < LIMIT && index < 6) search(modified, counter + 1, newClearedLines);
-                else {
-
-                    // Delay for enumeration of locked positions demonstration
+            if (counter > 0) transpositionTable.store(key, depth - counter, best, bestPath[counter]);
+            return best;
+        }
+
+        // BFS. Finds the locked positions of the tetromino number counter
+        private PlacementFinder findPlacements(GameField field, int counter) {
+            int start = counter == 0 ? fallingPosition : PlacementFinder.spawn(pieces[counter]);
+            finders[counter].search(field, pieces[counter], start, moveLimit);
+            return finders[counter];
+        }
+
+        // Stacks the locked position, makes deeper search and restores the field. Returns the grade without the lock
+        // heights of the tetrominoes placed before, the placements of the subtree are stored in bestPaths[counter + 1]
+        private double place(GameField field, int placement, int counter, int clearedLines) {
+            int lines = apply(field, counter, placement);
+            int newClearedLines = clearedLines + lines;
+            double grade;
+            if (counter + 1 < depth) {
+                grade = evaluator.countLockHeight(PlacementFinder.lockHeight(pieces[counter], placement)) +
+                        search(field, counter + 1, newClearedLines);
+            } else {
+
+                // Delay for enumeration of locked positions demonstration, the constant 0 leaves it out of the build
+                if (DELAY != 0) {
                     try {
                         Thread.sleep(DELAY);
                     } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        // the interrupted search stops at the next check of the expiry
+                        Thread.currentThread().interrupt();
+                        aborted = true;
                     }
+                }
 
-                    double grade = EvaluationCounter.evaluate(newClearedLines, modified, getLocation());
+                // the lock heights of the tetrominoes placed before are added by the callers
+                double lockHeight = evaluator.countLockHeight(PlacementFinder.lockHeight(pieces[counter], placement));
+                grade = evaluate(field, pieces[counter], placement, lines, newClearedLines, lockHeight);
+            }
+            field.undo();
+            return grade;
+        }
 
-                    if (grade < bestGrade) {
-                        bestGrade = grade;
-                        int i = 0;
-                        for (Position p : solution) bestSolution[i++] = p;
-                        // if we did not search for all the next LIMIT tetrominos (bucket ended) fill the last elements
-                        // of solution with null
-                        for (int j = LIMIT - 1; j > LIMIT - (LIMIT - (counter + 1)) - 1; j--) bestSolution[j] = null;
-                    }
-                }
+        // Drops the grades of the previous evaluator
+        private void clear() {
+            transpositionTable.clear();
+            evaluationCache.clear();
+        }
+
+        // Grade of the field after the placement, lines - the lines cleared by the tetromino. The grade of the cells is
+        // taken from the cache or counted with the features updated from parentFeatures.
+        private double evaluate(GameField field, Tetromino.Type type, int placement, int lines, int clearedLines,
+                                double lockHeight) {
+            long key = field.getHash();
+            int entry = evaluationCache.find(key);
+            double cells;
+            if (entry >= 0) cells = evaluationCache.getGrade(entry);
+            else {
+                cells = evaluator.evaluateCells(features.update(parentFeatures, field, type, placement, lines));
+                evaluationCache.store(key, cells);
+            }
+            return evaluator.evaluate(clearedLines, lockHeight, cells);
+        }
+    }
+
+    // Nodes of one level of the beam search in parallel arrays. The arrays grow with the beam and are reused by the
+    // next searches, so the beam search allocates nothing once they are large enough.
+    private static class BeamNodes {
+        private int size = 0;
+        private int[] parent = new int[0]; // index of the node of the previous level
+        private int[] placement = new int[0]; // placement of the tetromino of the level
+        private int[] clearedLines = new int[0];
+        private double[] grade = new double[0];
+        private long[] key = new long[0];
+        private GameField[] fields = new GameField[0]; // the fields after the placement, only on the beam levels
+
+        private void clear() {
+            size = 0;
+        }
+
+        private int capacity() {
+            return parent.length;
+        }
+
+        // Returns the index of the node
+        private int add(int parent, int placement, int clearedLines, double grade, long key) {
+            if (size == capacity()) {
+                int capacity = Math.max(64, 2 * size);
+                this.parent = Arrays.copyOf(this.parent, capacity);
+                this.placement = Arrays.copyOf(this.placement, capacity);
+                this.clearedLines = Arrays.copyOf(this.clearedLines, capacity);
+                this.grade = Arrays.copyOf(this.grade, capacity);
+                this.key = Arrays.copyOf(this.key, capacity);
+                this.fields = Arrays.copyOf(this.fields, capacity);
+            }
+            this.parent[size] = parent;
+            this.placement[size] = placement;
+            this.clearedLines[size] = clearedLines;
+            this.grade[size] = grade;
+            this.key[size] = key;
+            return size++;
+        }
+
+        // The levels keep at most the beam width of nodes, a linear scan is enough
+        private boolean contains(long key) {
+            for (int i = 0; i < size; i++) {
+                if (this.key[i] == key) return true;
             }
+            return false;
         }
     }
 
+    // Positions of the falling tetromino reachable in the last search, indexed by the first cell and the state. The
+    // DOWN movement of a Position may fall several rows, the rows above the stack are not listed.
     public Position[][][] getLockPositions() {
+        for (Position[][] row : lockPositions)
+            for (Position[] cell : row) Arrays.fill(cell, null);
+        PlacementFinder finder = main.finders[0];
+        Position[] nodes = new Position[finder.size()];
+        for (int node = 0; node < finder.size(); node++) {
+            int parent = finder.parent(node);
+            Tetromino tetromino = PlacementFinder.toTetromino(finder.getType(), finder.position(node));
+            nodes[node] = new Position(parent < 0 ? null : nodes[parent], tetromino, finder.movement(node), finder.k(node));
+            Tetromino.Coordinate first = tetromino.getCoordinates().get(0);
+            if (parent >= 0) lockPositions[first.getY()][first.getX()][tetromino.getState()] = nodes[node];
+        }
         return lockPositions;
     }
 
     public void update(GameSession gameSession) {
         lastCounter = -1;
         this.gameSession = gameSession;
-        robot.update(gameSession);
+        if (robot != null) robot.update(gameSession);
     }
 
     public static class Position {
@@ -224,33 +1008,26 @@ public class Solver {
 
     public void setSolving(boolean solving) {
         this.solving = solving;
-    }
-
-    public Tetromino[] getLocation() {
-        Tetromino[] result = new Tetromino[solution.length];
-        int i = 0;
-        for (Position p : solution) {
-            if (p != null) result[i++] = p.getTetromino();
-        }
-        return result;
+        if (!solving) gameSession.wakeUp();
     }
 
     public Tetromino[] getBestLocation() {
         Tetromino[] result = new Tetromino[bestSolution.length];
         int i = 0;
-        for (Position p : bestSolution) {
-            if (p != null) result[i++] = p.getTetromino();
+        for (int j = 0; j < bestSolution.length; j++) {
+            if (bestSolution[j] != NONE) result[i++] = PlacementFinder.toTetromino(pieces[j], bestSolution[j]);
         }
         return result;
     }
 
+    // The movements of the last decision for the game session
+    public Command getCommand() {
+        return new Command(tCounter, bestMovements, bestMovementsCount);
+    }
+
     public Deque<Movement> getMovements() {
-        Position position = bestSolution[0];
-        Deque<Movement> movements = new ArrayDeque<>();
-        while (position.getMovement() != null) {
-            movements.addFirst(position.getMovement());
-            position = position.getPredecessor();
-        }
+        Deque<Movement> movements = new ArrayDeque<>(bestMovementsCount);
+        for (int i = 0; i < bestMovementsCount; i++) movements.addLast(bestMovements[i]);
         ready = false;
         return movements;
     }
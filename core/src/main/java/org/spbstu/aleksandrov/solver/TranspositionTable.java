@@ -0,0 +1,82 @@
+package org.spbstu.aleksandrov.solver;
+
+import java.util.Arrays;
+
+// Bounded table of already searched subtrees of the solver, keyed by the hash of the field and the tetrominoes left
+// to place. Every key maps to a bucket of two entries: the first one keeps the deepest subtree of the current
+// search, the second one is always replaced.
+public class TranspositionTable {
+
+    private final int mask;
+    private final long[] keys;
+    private final double[] grades;
+    private final int[] placements;
+    private final int[] depths;
+    private final int[] generations;
+    private int generation = 1;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // size is rounded up to a power of two
+    public TranspositionTable(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        mask = capacity - 2;
+        keys = new long[capacity];
+        grades = new double[capacity];
+        placements = new int[capacity];
+        depths = new int[capacity];
+        generations = new int[capacity];
+    }
+
+    // Entries of the previous searches are still found, but the first entry of a bucket prefers the new ones
+    public void newSearch() {
+        generation++;
+    }
+
+    // Returns the index of the entry with the key or -1
+    public int find(long key) {
+        int bucket = (int) (key ^ (key >>> 32)) & mask;
+        for (int i = bucket; i < bucket + 2; i++) {
+            if (generations[i] != 0 && keys[i] == key) {
+                hits++;
+                return i;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    // depth is the number of tetrominoes placed in the subtree
+    public void store(long key, int depth, double grade, int placement) {
+        int bucket = (int) (key ^ (key >>> 32)) & mask;
+        int i = bucket + 1;
+        if (generations[bucket] != generation || depths[bucket] <= depth || keys[bucket] == key) i = bucket;
+        keys[i] = key;
+        grades[i] = grade;
+        placements[i] = placement;
+        depths[i] = depth;
+        generations[i] = generation;
+    }
+
+    public double getGrade(int entry) {
+        return grades[entry];
+    }
+
+    public int getPlacement(int entry) {
+        return placements[entry];
+    }
+
+    public void clear() {
+        Arrays.fill(generations, 0);
+        generation = 1;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
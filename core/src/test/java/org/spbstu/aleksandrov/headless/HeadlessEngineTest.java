@@ -0,0 +1,59 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.junit.jupiter.api.Test;
+import org.spbstu.aleksandrov.solver.EvaluationCounter;
+import org.spbstu.aleksandrov.solver.Evaluator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeadlessEngineTest {
+
+    // The grading of EvaluationCounter written outside of the solver package
+    private static class FeatureEvaluator implements Evaluator {
+
+        private final EvaluationCounter counter = new EvaluationCounter();
+        private final double[] p = counter.getWeights();
+
+        @Override
+        public double countLockHeight(int lockHeight) {
+            return counter.countLockHeight(lockHeight);
+        }
+
+        @Override
+        public double evaluateCells(EvaluationCounter.Features f) {
+            return (f.getWellCells() * p[2] + f.getDeepWells() * p[3]) +
+                    (f.getHoles() * p[4] + f.getHoleWeight() * p[5] + f.getHoleDepth() * p[6] +
+                            f.getMinHoleDepth() * p[7] + f.getMaxHoleDepth() * p[8]) +
+                    f.getColumnTransitions() * p[9] +
+                    f.getRowTransitions() * p[10] +
+                    (f.getTotalHeight() * p[11] + f.getSpread() * p[13] + f.getMaxHeight() * p[12] +
+                            f.getDispersion() * p[16]) +
+                    (f.getSolidCells() * p[14] + f.getSolidWeight() * p[15]);
+        }
+
+        @Override
+        public double evaluate(int removedLines, double lockHeight, double cells) {
+            return counter.evaluate(removedLines, lockHeight, cells);
+        }
+    }
+
+    @Test
+    public void customEvaluatorTest() {
+        HeadlessEngine counter = new HeadlessEngine(4);
+        HeadlessEngine custom = new HeadlessEngine(4);
+        custom.getSolver().setEvaluator(new FeatureEvaluator());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(counter.step(), custom.step());
+            assertEquals(counter.getGameSession().getGameField().getHash(),
+                    custom.getGameSession().getGameField().getHash());
+        }
+        assertEquals(counter.getGameSession().getScore(), custom.getGameSession().getScore());
+    }
+
+    @Test
+    public void stopTest() {
+        HeadlessEngine engine = new HeadlessEngine(4);
+        assertEquals(5, engine.play(30, () -> engine.getPieces() == 5).getPieces());
+        assertEquals(0, new HeadlessEngine(4).play(30, () -> true).getPieces());
+    }
+}
@@ -0,0 +1,32 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TournamentTest {
+
+    @Test
+    public void sameSeedTest() {
+        GameResult first = new HeadlessEngine(42).play(30);
+        GameResult second = new HeadlessEngine(42).play(30);
+        assertEquals(42, first.getSeed());
+        assertEquals(30, first.getPieces());
+        assertEquals(first.getScore(), second.getScore());
+        assertEquals(first.getLinesCleared(), second.getLinesCleared());
+    }
+
+    @Test
+    public void parallelismTest() {
+        List<GameResult> sequential = new Tournament(4, 20, 7, 1).play().getResults();
+        List<GameResult> parallel = new Tournament(4, 20, 7, 4).play().getResults();
+        assertEquals(4, parallel.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(sequential.get(i).getSeed(), parallel.get(i).getSeed());
+            assertEquals(sequential.get(i).getScore(), parallel.get(i).getScore());
+            assertEquals(sequential.get(i).getPieces(), parallel.get(i).getPieces());
+        }
+    }
+}
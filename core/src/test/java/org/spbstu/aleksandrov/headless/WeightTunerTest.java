@@ -0,0 +1,65 @@
+package org.spbstu.aleksandrov.headless;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spbstu.aleksandrov.solver.EvaluationCounter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeightTunerTest {
+
+    @Test
+    public void generationTest() {
+        WeightTuner sequential = new WeightTuner(6, 2, 3, 40, 5, 1);
+        WeightTuner parallel = new WeightTuner(6, 2, 3, 40, 5, 4);
+        sequential.setDropRatio(1);
+        parallel.setDropRatio(1);
+        sequential.nextGeneration();
+        parallel.nextGeneration();
+        assertEquals(1, parallel.getGeneration());
+        assertArrayEquals(sequential.getFitness(), parallel.getFitness());
+        assertArrayEquals(sequential.getMean(), parallel.getMean());
+
+        // the candidates below the elite boundary stop after the first game
+        int[] played = parallel.getPlayed();
+        assertTrue(Arrays.stream(played).sum() < 6 * 3);
+        assertEquals(2, Arrays.stream(played).filter(games -> games == 3).count());
+        assertTrue(parallel.getBestFitness() > 0);
+    }
+
+    @Test
+    public void rankTest() {
+        // the candidate 1 was dropped after a lucky first game, its average is above the ones that played all games
+        double[] fitness = {300, 900, 500, 200};
+        int[] played = {3, 1, 3, 2};
+        // with the elite of 2 the dropped candidate is not selected
+        assertArrayEquals(new Integer[]{2, 0, 3, 1}, WeightTuner.rank(fitness, played));
+    }
+
+    @Test
+    public void checkpointTest(@TempDir Path directory) throws IOException {
+        Path checkpoint = directory.resolve("tuner.properties");
+        WeightTuner tuner = new WeightTuner(4, 2, 2, 30, 9, 2);
+        tuner.nextGeneration();
+        tuner.save(checkpoint);
+        assertArrayEquals(tuner.getBest(), EvaluationCounter.load(checkpoint).getWeights());
+
+        WeightTuner restored = new WeightTuner(4, 2, 2, 30, 9, 2);
+        restored.restore(checkpoint);
+        assertEquals(1, restored.getGeneration());
+        tuner.nextGeneration();
+        restored.nextGeneration();
+        assertArrayEquals(tuner.getFitness(), restored.getFitness());
+        assertArrayEquals(tuner.getMean(), restored.getMean());
+
+        // the fitness of the survival mode is not comparable with the saved one
+        WeightTuner survival = new WeightTuner(4, 2, 2, 30, 9, 2);
+        survival.setSurvival(true);
+        assertThrows(IllegalArgumentException.class, () -> survival.restore(checkpoint));
+        assertEquals(0, survival.getGeneration());
+    }
+}
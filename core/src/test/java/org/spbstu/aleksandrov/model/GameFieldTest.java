@@ -124,4 +124,228 @@ public class GameFieldTest {
         field.stackTetromino(l);
         assertEquals(2, field.checkLinesToClear(l.getCoordinates()));
     }
+
+    @Test
+    public void rowMasksTest() {
+
+        // 1 | | | | |t| | | | | |
+        // 0 | | | |t|r|t| | | | |
+        //    0 1 2 3 4 5 6 7 8 9
+
+        GameField field = new GameField();
+        Tetromino t = new Tetromino(T);
+        t.place(4, 0);
+        field.stackTetromino(t);
+
+        assertEquals(0b111000, field.getRow(0));
+        assertEquals(0b10000, field.getRow(1));
+        assertFalse(field.isCellEmpty(3, 0));
+        assertTrue(field.isCellEmpty(3, 1));
+        assertEquals(GameField.CellType.PURPLE, field.getGameField()[1][4]);
+
+        GameField copy = field.clone();
+        field.clear();
+        assertEquals(0, field.getRow(0));
+        assertEquals(GameField.CellType.SPACE, field.getGameField()[1][4]);
+        assertEquals(0b111000, copy.getRow(0));
+        assertFalse(copy.areCellsEmpty(t.getCoordinates()));
+    }
+
+    @Test
+    public void setOccupancyTest() {
+
+        // z, t - types of tetromino, r - rotation point
+        // 4 | | | |z|z| | | | | |
+        // 3 | | | | |r|z| | | | |
+        // 2 | | | | | | | | | | |
+        // 1 | | | |t| | | | | | |
+        // 0 | | |t|r|t| | | | | |
+        //    0 1 2 3 4 5 6 7 8 9
+
+        GameField field = new GameField();
+        Tetromino t = new Tetromino(T);
+        t.place(3, 0);
+        field.stackTetromino(t);
+        Tetromino z = new Tetromino(Z);
+        z.place(4, 3);
+        field.stackTetromino(z);
+
+        int[] rows = new int[GameField.HEIGHT];
+        int[] columnHeights = new int[GameField.WIDTH];
+        for (int i = 0; i < GameField.HEIGHT; i++) rows[i] = field.getRow(i);
+        for (int j = 0; j < GameField.WIDTH; j++) columnHeights[j] = field.getColumnHeight(j);
+
+        GameField copy = new GameField();
+        copy.stackTetromino(new Tetromino(T));
+        copy.setOccupancy(rows, columnHeights);
+
+        for (int i = 0; i < GameField.HEIGHT; i++) assertEquals(field.getRow(i), copy.getRow(i));
+        for (int j = 0; j < GameField.WIDTH; j++) {
+            assertEquals(field.getColumnHeight(j), copy.getColumnHeight(j));
+            assertEquals(field.getColumnHoles(j), copy.getColumnHoles(j));
+        }
+        assertEquals(2, copy.getColumnHoles(3));
+        assertEquals(field.getHoles(), copy.getHoles());
+        assertEquals(field.getHash(), copy.getHash());
+        assertEquals(0, copy.getLogSize());
+        // the copy has no colors
+        assertEquals(GameField.CellType.SPACE, copy.getGameField()[4][3]);
+        assertFalse(copy.isCellEmpty(3, 4));
+    }
+
+    @Test
+    public void skylineAndDropDistanceTest() {
+
+        // z, t - types of tetromino, r - rotation point
+        // 4 | | | |z|z| | | | | |
+        // 3 | | | | |r|z| | | | |
+        // 2 | | | | | | | | | | |
+        // 1 | | | |t| | | | | | |
+        // 0 | | |t|r|t| | | | | |
+        //    0 1 2 3 4 5 6 7 8 9
+
+        GameField field = new GameField();
+        Tetromino t = new Tetromino(T);
+        t.place(3, 0);
+        field.stackTetromino(t);
+        Tetromino z = new Tetromino(Z);
+        z.place(4, 3);
+        field.stackTetromino(z);
+
+        assertEquals(0, field.getColumnHeight(1));
+        assertEquals(1, field.getColumnHeight(2));
+        assertEquals(5, field.getColumnHeight(3));
+        assertEquals(4, field.getColumnHeight(5));
+        assertEquals(2, field.getColumnHoles(3));
+        assertEquals(3, field.getColumnHoles(5));
+        assertEquals(7, field.getHoles());
+        assertEquals(3, field.getRowFill(0));
+
+        // I above the stack falls onto the top of the columns 3 and 4
+        assertEquals(15, field.dropDistance(I, 0, 4, 20));
+        // O under the overhang of z falls to the floor
+        assertEquals(1, field.dropDistance(O, 0, 5, 2));
+
+        // after the line 0 is cleared the top of the column 2 is gone
+        Tetromino i = new Tetromino(I);
+        i.place(6, 0);
+        field.stackTetromino(i);
+        i.rotate(ROT_R);
+        i.place(8, 2);
+        field.stackTetromino(i);
+        Tetromino o = new Tetromino(O);
+        o.place(0, 1);
+        field.stackTetromino(o);
+        assertEquals(1, field.checkLinesToClear(o.getCoordinates()));
+        field.cleanLines();
+        assertEquals(0, field.getColumnHeight(2));
+        assertEquals(4, field.getColumnHeight(3));
+        assertEquals(2, field.getColumnHoles(4));
+        assertEquals(1, field.getColumnHeight(0));
+    }
+
+    @Test
+    public void applyAndUndoTest() {
+
+        // i, o - types of tetromino, r - rotation point
+        // 1 |r|o| | | | | | | | |
+        // 0 |o|o|i|r|i|i|i|r|i|i|
+        //    0 1 2 3 4 5 6 7 8 9
+
+        GameField field = new GameField();
+        assertEquals(0, field.apply(I, 0, 3, 0));
+        assertEquals(0, field.apply(O, 0, 0, 1));
+        int[] rows = {field.getRow(0), field.getRow(1)};
+
+        // the second I completes the line 0
+        assertEquals(1, field.apply(I, 0, 7, 0));
+        assertEquals(0b11, field.getRow(0));
+        assertEquals(0, field.getRow(1));
+        assertEquals(1, field.getColumnHeight(0));
+        assertEquals(0, field.getColumnHeight(9));
+        assertEquals(3, field.getLogSize());
+
+        field.undo();
+        assertEquals(rows[0], field.getRow(0));
+        assertEquals(rows[1], field.getRow(1));
+        assertEquals(GameField.CellType.CYAN, field.getGameField()[0][4]);
+        assertEquals(GameField.CellType.SPACE, field.getGameField()[0][9]);
+        assertEquals(2, field.getColumnHeight(0));
+        assertEquals(0, field.getColumnHeight(9));
+
+        field.undo();
+        field.undo();
+        assertEquals(0, field.getRow(0));
+        assertEquals(0, field.getHoles());
+        assertThrows(IllegalStateException.class, field::undo);
+    }
+
+    @Test
+    public void setTest() {
+        GameField field = new GameField();
+        field.apply(O, 0, 0, 1);
+        field.apply(I, 0, 3, 0);
+        GameField other = new GameField();
+        other.apply(T, 0, 5, 0);
+
+        // the cells, the skyline and the hash are copied, the log of the other field is dropped
+        other.set(field);
+        assertEquals(field.getRow(0), other.getRow(0));
+        assertEquals(field.getRow(1), other.getRow(1));
+        assertEquals(field.getHash(), other.getHash());
+        assertEquals(field.getColumnHeight(0), other.getColumnHeight(0));
+        assertEquals(GameField.CellType.SPACE, other.getGameField()[0][6]);
+        assertEquals(0, other.getLogSize());
+        assertThrows(IllegalStateException.class, other::undo);
+
+        other.apply(I, 0, 7, 0);
+        other.undo();
+        assertEquals(field.getHash(), other.getHash());
+    }
+
+    @Test
+    public void applyOccupiedTest() {
+        GameField field = new GameField();
+        field.apply(O, 0, 4, 1);
+        int[] rows = {field.getRow(0), field.getRow(1)};
+
+        // the T overlaps the O, the field and the log do not change
+        assertThrows(IllegalArgumentException.class, () -> field.apply(T, 0, 4, 1));
+        assertThrows(IllegalArgumentException.class, () -> field.apply(I, 0, 9, 0));
+        assertEquals(rows[0], field.getRow(0));
+        assertEquals(rows[1], field.getRow(1));
+        assertEquals(1, field.getLogSize());
+
+        field.undo();
+        assertEquals(0, field.getRow(0));
+        assertEquals(0, field.getRow(1));
+    }
+
+    @Test
+    public void hashTest() {
+        GameField field = new GameField();
+        assertEquals(0, field.getHash());
+
+        // the same cells stacked in a different order give the same hash
+        field.apply(O, 0, 0, 1);
+        field.apply(I, 0, 3, 0);
+        GameField other = new GameField();
+        other.apply(I, 0, 3, 0);
+        other.apply(O, 0, 0, 1);
+        assertEquals(field.getHash(), other.getHash());
+        assertEquals(field.getHash(), field.clone().getHash());
+
+        // the hash follows removed lines and undo
+        long hash = field.getHash();
+        field.apply(I, 0, 7, 0);
+        Tetromino i = new Tetromino(I);
+        i.place(7, 0);
+        other.stackTetromino(i);
+        other.checkLinesToClear(i.getCoordinates());
+        other.cleanLines();
+        assertEquals(other.getHash(), field.getHash());
+        assertNotEquals(hash, field.getHash());
+        field.undo();
+        assertEquals(hash, field.getHash());
+    }
 }
@@ -2,6 +2,8 @@ package org.spbstu.aleksandrov.model;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class GameSessionTest {
@@ -49,7 +51,8 @@ public class GameSessionTest {
 
     @Test
     public void hardDropTest() {
-        GameSession game = new GameSession(0);
+        // Keep the initial order of the bucket (L, J, ...) so that the second tetromino is not I
+        GameSession game = new GameSession(0, bucket -> {});
         Tetromino projection = game.getFallingProjection().clone();
 
         // Drop from spawn state, drop height = 18
@@ -76,4 +79,120 @@ public class GameSessionTest {
         assertFalse(game.getGameField().areCellsEmpty(projection.getCoordinates()));
         assertEquals(game.getBucket()[2], game.getFallingTetromino().getType());
     }
+
+    @Test
+    public void seededRandomizerTest() {
+        GameSession first = new GameSession(0, 42);
+        GameSession second = new GameSession(0, 42);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(first.getFallingTetromino().getType(), second.getFallingTetromino().getType());
+            first.generateNewTetromino();
+            second.generateNewTetromino();
+        }
+
+        // Every bucket contains all the tetrominoes
+        Tetromino.Type[] bucket = Tetromino.Type.values().clone();
+        Randomizer randomizer = new SeededRandomizer(7);
+        for (int i = 0; i < 100; i++) {
+            randomizer.shuffle(bucket);
+            assertEquals(7, Arrays.stream(bucket).distinct().count());
+        }
+    }
+
+    @Test
+    public void awaitTetrominoTest() throws InterruptedException {
+        GameSession game = new GameSession(0);
+        int tCounter = game.getTCounter();
+        assertFalse(game.awaitTetromino(tCounter, 10));
+
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            game.generateNewTetromino();
+        });
+        thread.start();
+        assertTrue(game.awaitTetromino(tCounter, 10000));
+        thread.join();
+        assertEquals(tCounter + 1, game.getTCounter());
+
+        // the tetromino is already there
+        assertTrue(game.awaitTetromino(tCounter, 10000));
+        game.wakeUp();
+        assertFalse(game.awaitTetromino(tCounter + 1, 10000));
+    }
+
+    @Test
+    public void awaitGameOverTest() throws InterruptedException {
+        GameSession game = new GameSession(0);
+        int tCounter = game.getTCounter();
+        // the next tetromino can not appear
+        game.getGameField().stackTetromino(game.getNextTetromino().clone());
+
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            game.generateNewTetromino();
+        });
+        thread.start();
+        long start = System.nanoTime();
+        assertFalse(game.awaitTetromino(tCounter, 10000));
+        thread.join();
+        assertTrue(game.isGameOver());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        // the game stays over
+        assertFalse(game.awaitTetromino(tCounter, 10000));
+    }
+
+    @Test
+    public void snapshotTest() {
+        GameSession game = new GameSession(0, 4);
+        GameSnapshot snapshot = game.getSnapshot();
+        assertEquals(game.getFallingTetromino().getType(), snapshot.getFalling());
+        assertEquals(game.getNextTetromino().getType(), snapshot.getNext());
+        assertEquals(game.getTCounter(), snapshot.getTCounter());
+        int y = snapshot.getY();
+
+        // the snapshot does not change with the game
+        game.step();
+        Tetromino.Type[] bucket = game.getBucket();
+        Tetromino.Type type = bucket[0];
+        bucket[0] = null;
+        assertEquals(y, snapshot.getY());
+        assertEquals(type, snapshot.getBucket()[0]);
+        bucket[0] = type;
+        game.hardDrop();
+        assertEquals(0, snapshot.getHash());
+        assertNotEquals(snapshot.getHash(), game.getSnapshot().getHash());
+        assertEquals(game.getGameField().getHash(), game.getSnapshot().getGameField().getHash());
+        GameSnapshot last = game.getSnapshot();
+        for (int j = 0; j < GameField.WIDTH; j++)
+            assertEquals(game.getGameField().getColumnHeight(j), last.getColumnHeight(j));
+        assertEquals(game.getGameField().getHoles(), last.getGameField().getHoles());
+    }
+
+    @Test
+    public void commandTest() {
+        GameSession game = new GameSession(0, 4);
+        int x = game.getFallingTetromino().getRotationPoint().getX();
+        Tetromino.Movement[] movements = {Tetromino.Movement.LEFT, Tetromino.Movement.LEFT};
+
+        // a command for another tetromino is discarded
+        game.submit(new Command(game.getTCounter() + 1, movements, 2));
+        assertFalse(game.executeCommand(Integer.MAX_VALUE));
+        assertEquals(x, game.getFallingTetromino().getRotationPoint().getX());
+
+        int tCounter = game.getTCounter();
+        game.submit(new Command(tCounter, movements, 2));
+        assertFalse(game.executeCommand(1));
+        assertEquals(x - 1, game.getFallingTetromino().getRotationPoint().getX());
+        assertTrue(game.executeCommand(1));
+        assertEquals(tCounter + 1, game.getTCounter());
+        assertFalse(game.executeCommand(1));
+    }
 }
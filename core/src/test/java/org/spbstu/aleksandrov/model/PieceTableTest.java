@@ -0,0 +1,71 @@
+package org.spbstu.aleksandrov.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.spbstu.aleksandrov.model.Tetromino.Movement.*;
+import static org.spbstu.aleksandrov.model.Tetromino.Type.*;
+
+public class PieceTableTest {
+
+    @Test
+    public void rowMasksTest() {
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            for (int state = 0; state < PieceTable.STATES; state++) {
+                int[] masks = PieceTable.rowMasks(type, state);
+                int cells = 0;
+                for (int mask : masks) cells += Integer.bitCount(mask);
+                assertEquals(PieceTable.CELLS, cells);
+                for (int c = 0; c < PieceTable.CELLS; c++) {
+                    int row = PieceTable.cellY(type, state, c) - PieceTable.minY(type, state);
+                    int column = PieceTable.cellX(type, state, c) - PieceTable.minX(type, state);
+                    assertTrue((masks[row] & (1 << column)) != 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotationTest() {
+
+        // T after ROT_R from spawn, r - rotation point
+        // 21 | |t| |
+        // 20 | |r|t|
+        // 19 | |t| |
+        //     3 4 5
+
+        Tetromino t = new Tetromino(T);
+        t.rotate(ROT_R);
+        assertEquals(1, t.getState());
+        assertTrue(contains(t, 4, 21));
+        assertTrue(contains(t, 5, 20));
+        assertTrue(contains(t, 4, 19));
+
+        // I rotates around the center of its bounding box, the rotation point does not move
+        Tetromino i = new Tetromino(I);
+        i.rotate(ROT_L);
+        assertEquals(3, i.getState());
+        for (int y = 18; y < 22; y++) assertTrue(contains(i, 4, y));
+        assertEquals(4, i.getRotationPoint().getX());
+        assertEquals(20, i.getRotationPoint().getY());
+
+        i.rotate(ROT_R);
+        for (int x = 3; x < 7; x++) assertTrue(contains(i, x, 20));
+    }
+
+    @Test
+    public void findRotationTest() {
+        GameField field = new GameField();
+        // on the empty field the rotation does not need a wall kick
+        assertEquals(0, field.findRotation(T, 0, 4, 10, ROT_R));
+        // vertical I at the left wall is kicked to the right
+        assertEquals(1, field.findRotation(I, 3, 0, 10, ROT_R));
+        assertEquals(1, PieceTable.kickX(I, 3, ROT_R, 1));
+    }
+
+    private static boolean contains(Tetromino tetromino, int x, int y) {
+        for (Tetromino.Coordinate coordinate : tetromino.getCoordinates())
+            if (coordinate.getX() == x && coordinate.getY() == y) return true;
+        return false;
+    }
+}
@@ -0,0 +1,66 @@
+package org.spbstu.aleksandrov.solver;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spbstu.aleksandrov.headless.HeadlessEngine;
+import org.spbstu.aleksandrov.model.GameField;
+import org.spbstu.aleksandrov.model.Tetromino;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EvaluationCounterTest {
+
+    @Test
+    public void updateTest() {
+        HeadlessEngine engine = new HeadlessEngine(1);
+        PlacementFinder finder = new PlacementFinder();
+        EvaluationCounter.Features parent = new EvaluationCounter.Features();
+        EvaluationCounter.Features child = new EvaluationCounter.Features();
+        EvaluationCounter.Features full = new EvaluationCounter.Features();
+        EvaluationCounter counter = new EvaluationCounter();
+        for (int i = 0; i < 60 && engine.step(); i++) {
+            GameField field = engine.getGameSession().getGameField();
+            Tetromino.Type type = Tetromino.Type.values()[i % Tetromino.Type.values().length];
+            parent.extract(field);
+            finder.search(field, type, PlacementFinder.spawn(type), Integer.MAX_VALUE);
+            for (int j = 0; j < finder.getLockedCount(); j++) {
+                int placement = finder.getLocked(j);
+                int lines = field.apply(type, PlacementFinder.state(placement), PlacementFinder.x(placement),
+                        PlacementFinder.y(placement));
+                child.update(parent, field, type, placement, lines);
+                full.extract(field);
+                assertEquals(full.holes, child.holes);
+                assertEquals(full.wellCells, child.wellCells);
+                assertEquals(full.columnTransitions, child.columnTransitions);
+                assertEquals(full.rowTransitions, child.rowTransitions);
+                assertEquals(counter.evaluate(lines, 0, full), counter.evaluate(lines, 0, child));
+                field.undo();
+            }
+        }
+    }
+
+    @Test
+    public void loadTest(@TempDir Path directory) throws IOException {
+        double[] weights = new EvaluationCounter().getWeights();
+        weights[4] = 0;
+        String values = Arrays.stream(weights).mapToObj(Double::toString).collect(Collectors.joining(", "));
+        Path file = directory.resolve("weights.properties");
+        Files.write(file, Arrays.asList("# no holes penalty", "weights = " + values, "survival = true"));
+
+        EvaluationCounter counter = EvaluationCounter.load(file);
+        assertArrayEquals(weights, counter.getWeights());
+        assertTrue(counter.isSurvival());
+
+        Files.write(file, Collections.singletonList("weights = 1, 2, 3"));
+        assertThrows(IllegalArgumentException.class, () -> EvaluationCounter.load(file));
+        Files.write(file, Collections.singletonList("survival = true"));
+        assertThrows(IllegalArgumentException.class, () -> EvaluationCounter.load(file));
+    }
+}
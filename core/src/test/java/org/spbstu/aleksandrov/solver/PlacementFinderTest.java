@@ -0,0 +1,118 @@
+package org.spbstu.aleksandrov.solver;
+
+import org.junit.jupiter.api.Test;
+import org.spbstu.aleksandrov.headless.HeadlessEngine;
+import org.spbstu.aleksandrov.model.GameField;
+import org.spbstu.aleksandrov.model.Tetromino;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlacementFinderTest {
+
+    @Test
+    public void packTest() {
+        for (int state = 0; state < 4; state++) {
+            for (int x = -2; x < 12; x++) {
+                for (int y = -2; y < 24; y++) {
+                    int position = PlacementFinder.pack(x, y, state);
+                    assertTrue(position >= 0 && position < PlacementFinder.POSITIONS);
+                    assertEquals(x, PlacementFinder.x(position));
+                    assertEquals(y, PlacementFinder.y(position));
+                    assertEquals(state, PlacementFinder.state(position));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchTest() {
+        GameField field = new GameField();
+        PlacementFinder finder = new PlacementFinder();
+        int spawn = PlacementFinder.spawn(Tetromino.Type.T);
+
+        // 8 positions for both horizontal states, 9 for both vertical states
+        assertEquals(34, finder.search(field, Tetromino.Type.T, spawn, Integer.MAX_VALUE));
+
+        for (int i = 0; i < finder.getLockedCount(); i++) {
+            int placement = finder.getLocked(i);
+            assertEquals(0, PlacementFinder.lockHeight(Tetromino.Type.T, placement));
+
+            // the path leads from the spawn to the placement
+            Tetromino tetromino = PlacementFinder.toTetromino(Tetromino.Type.T, spawn);
+            int node = finder.node(placement);
+            Deque<Tetromino.Movement> movements = new ArrayDeque<>();
+            for (int n = node; finder.parent(n) >= 0; n = finder.parent(n)) {
+                for (int j = 0; j < finder.distance(n); j++) movements.addFirst(finder.movement(n));
+            }
+            for (Tetromino.Movement movement : movements) {
+                if (movement == Tetromino.Movement.ROT_L || movement == Tetromino.Movement.ROT_R)
+                    field.rotateOnField(movement, tetromino);
+                else tetromino.move(movement);
+            }
+            assertEquals(placement, PlacementFinder.pack(tetromino));
+        }
+    }
+
+    @Test
+    public void symmetryTest() {
+        GameField field = new GameField();
+        PlacementFinder finder = new PlacementFinder();
+
+        // every state of O covers the same cells
+        assertEquals(9, finder.search(field, Tetromino.Type.O, PlacementFinder.spawn(Tetromino.Type.O), Integer.MAX_VALUE));
+        // 7 horizontal and 10 vertical I
+        assertEquals(17, finder.search(field, Tetromino.Type.I, PlacementFinder.spawn(Tetromino.Type.I), Integer.MAX_VALUE));
+        // 8 horizontal and 9 vertical S
+        assertEquals(17, finder.search(field, Tetromino.Type.S, PlacementFinder.spawn(Tetromino.Type.S), Integer.MAX_VALUE));
+
+        for (int i = 0; i < finder.getLockedCount(); i++) {
+            Tetromino placed = PlacementFinder.toTetromino(Tetromino.Type.S, finder.getLocked(i));
+            for (int j = 0; j < i; j++) {
+                Tetromino other = PlacementFinder.toTetromino(Tetromino.Type.S, finder.getLocked(j));
+                GameField first = new GameField();
+                GameField second = new GameField();
+                first.stackTetromino(placed);
+                second.stackTetromino(other);
+                assertNotEquals(first.getHash(), second.getHash());
+            }
+        }
+    }
+
+    @Test
+    public void occupiedTest() {
+        GameField field = new GameField();
+        PlacementFinder finder = new PlacementFinder();
+        field.stackTetromino(new Tetromino(Tetromino.Type.O));
+
+        // the tetromino can not appear, the game is over
+        assertEquals(0, finder.search(field, Tetromino.Type.T, PlacementFinder.spawn(Tetromino.Type.T), Integer.MAX_VALUE));
+        assertEquals(0, finder.getLockedCount());
+    }
+
+    @Test
+    public void fallTest() {
+        HeadlessEngine engine = new HeadlessEngine(1);
+        PlacementFinder finder = new PlacementFinder();
+        for (int i = 0; i < 60 && engine.step(); i++) {
+            GameField field = engine.getGameSession().getGameField();
+            for (Tetromino.Type type : Tetromino.Type.values()) {
+                int spawn = PlacementFinder.spawn(type);
+                // a restricted search falls row by row
+                finder.search(field, type, spawn, Integer.MAX_VALUE - 1);
+                int size = finder.size();
+                Set<Integer> placements = new HashSet<>();
+                for (int j = 0; j < finder.getLockedCount(); j++) placements.add(finder.getLocked(j));
+
+                finder.search(field, type, spawn, Integer.MAX_VALUE);
+                assertTrue(finder.size() < size);
+                assertEquals(placements.size(), finder.getLockedCount());
+                for (int j = 0; j < finder.getLockedCount(); j++) assertTrue(placements.contains(finder.getLocked(j)));
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.spbstu.aleksandrov.solver;
+
+import org.junit.jupiter.api.Test;
+import org.spbstu.aleksandrov.headless.HeadlessEngine;
+import org.spbstu.aleksandrov.model.GameField;
+import org.spbstu.aleksandrov.model.GameSession;
+import org.spbstu.aleksandrov.model.Tetromino;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SolverTest {
+
+    @Test
+    public void parallelSearchTest() {
+        HeadlessEngine sequential = new HeadlessEngine(3);
+        HeadlessEngine parallel = new HeadlessEngine(3);
+        parallel.getSolver().setParallelism(3);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(sequential.step(), parallel.step());
+            assertEquals(sequential.getGameSession().getGameField().getHash(),
+                    parallel.getGameSession().getGameField().getHash());
+        }
+        assertEquals(sequential.getGameSession().getScore(), parallel.getGameSession().getScore());
+    }
+
+    @Test
+    public void beamSearchTest() {
+        HeadlessEngine engine = new HeadlessEngine(11);
+        Solver solver = engine.getSolver();
+        solver.setBeam(8, 4);
+        assertThrows(IllegalArgumentException.class, () -> solver.setBeam(8, 9));
+
+        // at the start of the bucket the falling, the next and the rest of the bucket are known
+        engine.getGameSession().reset();
+        solver.solve();
+        Tetromino[] location = solver.getBestLocation();
+        for (int i = 0; i < 4; i++) assertNotNull(location[i]);
+        assertNull(location[4]);
+
+        assertEquals(60, engine.play(60).getPieces());
+    }
+
+    @Test
+    public void anytimeTest() {
+        assertEquals(48 * Solver.timeBudget(30), Solver.timeBudget(1));
+        assertEquals(Solver.timeBudget(30), Solver.timeBudget(35));
+
+        HeadlessEngine engine = new HeadlessEngine(5);
+        Solver solver = engine.getSolver();
+        solver.setAnytime(true);
+        engine.getGameSession().reset();
+        solver.solve();
+        assertEquals(2, solver.getSearchedDepth());
+        assertNotNull(solver.getBestLocation()[1]);
+
+        // even with one frame the first tetromino is placed
+        engine.getGameSession().setLevel(30);
+        solver.setBeam(64, 8);
+        solver.solve();
+        assertTrue(solver.getSearchedDepth() >= 1);
+        assertNotNull(solver.getBestLocation()[0]);
+    }
+
+    @Test
+    public void subtreeReuseTest() {
+        // the order of the bucket is fixed
+        HeadlessEngine engine = new HeadlessEngine(new GameSession(0, bucket -> {}));
+        Solver solver = engine.getSolver();
+        for (int i = 0; i < 4; i++) engine.step();
+
+        // 3 tetrominoes are known before the end of the bucket, 2 after the next one
+        solver.setSearchDepth(3);
+        engine.step();
+        TranspositionTable table = solver.getTranspositionTable();
+        long misses = table.getMisses();
+        long hits = table.getHits();
+
+        // all the subtrees under the chosen placement were searched in the previous decision
+        solver.solve();
+        assertEquals(misses, table.getMisses());
+        assertTrue(table.getHits() > hits);
+    }
+
+    @Test
+    public void evaluationCacheTest() {
+        // the keys of one window, the key found since the last store gets a second chance
+        EvaluationCache cache = new EvaluationCache(8);
+        for (long key = 1; key <= 4; key++) cache.store(key << 32 | key, key);
+        assertTrue(cache.find(1L << 32 | 1) >= 0);
+        cache.store(5L << 32 | 5, 5);
+        assertTrue(cache.find(1L << 32 | 1) >= 0);
+        assertEquals(-1, cache.find(2L << 32 | 2));
+        assertEquals(5.0, cache.getGrade(cache.find(5L << 32 | 5)));
+
+        // the fields of the beam are graded again in the next decisions
+        HeadlessEngine engine = new HeadlessEngine(11);
+        engine.getSolver().setBeam(8, 4);
+        engine.play(20);
+        assertTrue(engine.getSolver().getEvaluationCache().getHits() > 0);
+    }
+
+    @Test
+    public void evaluatorTest() {
+        HeadlessEngine engine = new HeadlessEngine(5);
+        Solver solver = engine.getSolver();
+        solver.setSearchDepth(3);
+        engine.play(10);
+
+        double[] weights = new EvaluationCounter().getWeights();
+        weights[4] = 0;
+        Evaluator evaluator = new EvaluationCounter(weights, true);
+        solver.setEvaluator(evaluator);
+        // the grades of the old weights are not reused
+        Solver fresh = new Solver(engine.getGameSession());
+        fresh.setSearchDepth(3);
+        fresh.setEvaluator(evaluator);
+        for (int i = 0; i < 10; i++) {
+            fresh.solve();
+            engine.step();
+            assertEquals(fresh.bestGrade, solver.bestGrade);
+        }
+    }
+
+    @Test
+    public void ponderingTest() {
+        HeadlessEngine plain = new HeadlessEngine(9);
+        HeadlessEngine pondering = new HeadlessEngine(9);
+        pondering.getSolver().setPondering(true);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(plain.step(), pondering.step());
+            assertEquals(plain.getGameSession().getGameField().getHash(),
+                    pondering.getGameSession().getGameField().getHash());
+        }
+        // only the decisions after the end of a bucket are searched again
+        assertTrue(pondering.getSolver().getPonderHits() >= 30);
+        pondering.getSolver().setPondering(false);
+    }
+
+    @Test
+    public void expectimaxTest() {
+        HeadlessEngine engine = new HeadlessEngine(new GameSession(0, bucket -> {}));
+        Solver solver = engine.getSolver();
+        assertThrows(IllegalArgumentException.class, () -> solver.setExpectimax(4, 3));
+        for (int i = 0; i < 5; i++) engine.step();
+
+        // the next tetromino is the last one of the bucket
+        solver.setSearchDepth(3);
+        solver.solve();
+        assertEquals(2, solver.getSearchedDepth());
+
+        solver.setExpectimax(4, 1);
+        solver.solve();
+        assertEquals(3, solver.getSearchedDepth());
+        Tetromino[] location = solver.getBestLocation();
+        assertNotNull(location[1]);
+        assertNull(location[2]);
+
+        // the workers grade the same candidates
+        solver.setParallelism(3);
+        solver.solve();
+        Tetromino first = solver.getBestLocation()[0];
+        assertEquals(location[0].getState(), first.getState());
+        assertEquals(location[0].getRotationPoint().getX(), first.getRotationPoint().getX());
+        assertEquals(location[0].getRotationPoint().getY(), first.getRotationPoint().getY());
+        solver.setParallelism(1);
+    }
+
+    @Test
+    public void deepExpectimaxTest() {
+        // from the fifth decision the search reaches the end of the bucket, the candidates found in the transposition
+        // table are graded with their complete paths
+        for (long seed = 1; seed <= 2; seed++) {
+            HeadlessEngine sequential = new HeadlessEngine(seed);
+            HeadlessEngine parallel = new HeadlessEngine(seed);
+            for (HeadlessEngine engine : new HeadlessEngine[]{sequential, parallel}) {
+                engine.getSolver().setSearchDepth(4);
+                engine.getSolver().setExpectimax(3, 1);
+            }
+            parallel.getSolver().setParallelism(4);
+            for (int i = 0; i < 6; i++) {
+                assertTrue(sequential.step());
+                assertTrue(parallel.step());
+                assertEquals(sequential.getGameSession().getGameField().getHash(),
+                        parallel.getGameSession().getGameField().getHash());
+            }
+        }
+    }
+
+    @Test
+    public void gameOverTest() throws InterruptedException {
+        GameSession game = new GameSession(0, 2);
+        Solver solver = new Solver(game);
+        solver.setSolving(true);
+        Thread thread = new Thread(solver::startSolving);
+        thread.start();
+        game.getGameField().stackTetromino(game.getNextTetromino().clone());
+        game.generateNewTetromino();
+
+        // the solving thread ends with the game, without setSolving(false)
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void adaptiveTest() {
+        GameSession game = new GameSession(0, 6);
+        Solver solver = new Solver(game);
+        solver.setAdaptive(true);
+        solver.solve();
+        assertEquals(1, solver.getSearchedDepth());
+
+        // a tower of 6 O in the middle of the field
+        GameField field = game.getGameField();
+        for (int i = 0; i < 6; i++) {
+            int y = 20 - field.dropDistance(Tetromino.Type.O, 0, 4, 20);
+            field.apply(Tetromino.Type.O, 0, 4, y);
+        }
+        game.generateNewTetromino();
+        solver.solve();
+        assertEquals(3, solver.getSearchedDepth());
+
+        solver.setAdaptive(false);
+        solver.solve();
+        assertEquals(2, solver.getSearchedDepth());
+    }
+}